@@ -0,0 +1,111 @@
+package benchmarkPackage;
+
+import java.io.*;
+import java.util.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+// Runs every benchmark through JMH: command dispatch, protocol parsing, broadcast fan-out,
+// history blocks and the store. Save a baseline before a change and gate the run after it
+// against that baseline; the gate exits with status 1 if any benchmark got slower than the
+// tolerance allows. Baselines hold one name=opsPerSecond per line, e.g.
+// FanOutBenchmark.broadcast:clients=100=2345678.
+// Usage: java -cp benchmarks/target/benchmarks.jar benchmarkPackage.BenchmarkSuite [--save <file>] [--gate <file> [tolerance, default 0.10]]
+// Pick benchmarks with -Dchat.bench.filter=<regex>, e.g. -Dchat.bench.filter=FanOut, and
+// override the class defaults with -Dchat.bench.warmup, -Dchat.bench.iterations and -Dchat.bench.forks
+public class BenchmarkSuite {
+
+    public static void main(String[] args) throws Exception {
+        File save = null;
+        File gate = null;
+        double tolerance = 0.10;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--save") && i + 1 < args.length) {
+                save = new File(args[++i]);
+            } else if (args[i].equals("--gate") && i + 1 < args.length) {
+                gate = new File(args[++i]);
+                if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    tolerance = Double.parseDouble(args[++i]);
+                }
+            } else {
+                System.out.println("Usage: java benchmarkPackage.BenchmarkSuite [--save <file>] [--gate <file> [tolerance]]");
+                System.exit(2);
+            }
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include("benchmarkPackage\\..*(" + System.getProperty("chat.bench.filter", "") + ")");
+        Integer warmup = Integer.getInteger("chat.bench.warmup");
+        if (warmup != null) {
+            options.warmupIterations(warmup);
+        }
+        Integer iterations = Integer.getInteger("chat.bench.iterations");
+        if (iterations != null) {
+            options.measurementIterations(iterations);
+        }
+        Integer forks = Integer.getInteger("chat.bench.forks");
+        if (forks != null) {
+            options.forks(forks);
+        }
+
+        Map<String, Double> results = new TreeMap<>();
+        for (RunResult result : new Runner(options.build()).run()) {
+            results.put(name(result.getParams()), result.getPrimaryResult().getScore());
+        }
+
+        if (save != null) {
+            save(results, save);
+        }
+        if (gate != null && !gate(results, gate, tolerance)) {
+            System.out.println("Slower than " + gate + " by more than " + Math.round(tolerance * 100) + "%");
+            System.exit(1);
+        }
+    }
+
+    // Class.method, then any parameters, so each @Param value has its own baseline
+    private static String name(BenchmarkParams params) {
+        StringBuilder name = new StringBuilder(params.getBenchmark().substring("benchmarkPackage.".length()));
+        for (String key : params.getParamsKeys()) {
+            name.append(':').append(key).append('=').append(params.getParam(key));
+        }
+        return name.toString();
+    }
+
+    private static void save(Map<String, Double> results, File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            for (Map.Entry<String, Double> result : results.entrySet()) {
+                out.println(result.getKey() + "=" + result.getValue().longValue());
+            }
+        }
+        System.out.println("Saved " + results.size() + " results to " + file);
+    }
+
+    // True when no benchmark fell below baseline * (1 - tolerance); ones missing from the baseline pass
+    private static boolean gate(Map<String, Double> results, File baselineFile, double tolerance) throws IOException {
+        Map<String, Double> baseline = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(baselineFile), "UTF-8"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int split = line.lastIndexOf('='); // Names contain '=' between a parameter and its value
+                if (split > 0) {
+                    baseline.put(line.substring(0, split), Double.parseDouble(line.substring(split + 1)));
+                }
+            }
+        }
+        boolean passed = true;
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            Double reference = baseline.get(result.getKey());
+            if (reference == null) {
+                System.out.printf("%-48s no baseline%n", result.getKey());
+                continue;
+            }
+            double change = (result.getValue() - reference) / reference;
+            boolean regressed = change < -tolerance;
+            passed &= !regressed;
+            System.out.printf("%-48s %+6.1f%% against %,.0f%s%n", result.getKey(), change * 100, reference, regressed ? "  REGRESSION" : "");
+        }
+        return passed;
+    }
+}
@@ -0,0 +1,114 @@
+package benchmarkPackage;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import protocolPackage.*;
+
+// Lines per second through the old chained contains() routing versus CommandDecoder plus a
+// CommandTable, on a mix of commands shaped like real traffic. The contains chain also counts
+// the chat lines it treated as commands, reported as its misrouted counter.
+// Usage: java -jar benchmarks/target/benchmarks.jar DispatchBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    static final int CORPUS_SIZE = 1 << 16; // A power of two, so a wrapping counter can index it
+
+    // Handlers hand what they decode to the Blackhole so the JIT cannot drop the work
+    private static final CommandTable<Blackhole> TABLE = new CommandTable<Blackhole>()
+            .on(BinaryProtocol.CHAT, ClientCommand.Chat.class, (bh, c) -> bh.consume(c.roomId + c.content.length()))
+            .on(BinaryProtocol.INVITE, ClientCommand.Invite.class, (bh, c) -> bh.consume(c.invitedUserId + c.senderId))
+            .on(BinaryProtocol.INVITE_ACCEPTED, ClientCommand.InviteResponse.class, (bh, c) -> bh.consume(c.inviterId))
+            .on(BinaryProtocol.INVITE_REJECTED, ClientCommand.InviteResponse.class, (bh, c) -> bh.consume(-c.inviterId))
+            .on(BinaryProtocol.JOIN_ROOM, ClientCommand.RoomMembership.class, (bh, c) -> bh.consume(c.roomId))
+            .on(BinaryProtocol.LEAVE_ROOM, ClientCommand.RoomMembership.class, (bh, c) -> bh.consume(-c.roomId))
+            .on(BinaryProtocol.HISTORY_BEFORE, ClientCommand.HistoryBefore.class, (bh, c) -> bh.consume(c.messageId));
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Misroutes {
+        public long misrouted; // handleLine answered these with "ERROR: Malformed message"
+    }
+
+    private String[] lines;
+    private int next;
+
+    @Setup
+    public void setup() {
+        lines = corpus(CORPUS_SIZE);
+    }
+
+    @Benchmark
+    public long containsChain(Misroutes misroutes) {
+        try {
+            return routeByContains(lines[next++ & (CORPUS_SIZE - 1)]);
+        } catch (NumberFormatException e) {
+            misroutes.misrouted++;
+            return 0;
+        }
+    }
+
+    @Benchmark
+    public void decoder(Blackhole bh) {
+        ClientCommand command = CommandDecoder.decode(lines[next++ & (CORPUS_SIZE - 1)]);
+        if (command != null) {
+            TABLE.dispatch(bh, command);
+        }
+    }
+
+    // Shared with ParseBenchmark, so both measure the same traffic
+    static String[] corpus(int count) {
+        Random random = new Random(42);
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            int kind = random.nextInt(100);
+            if (kind < 85) {
+                String room = random.nextBoolean() ? "null" : String.valueOf(random.nextInt(50));
+                // Some chat content names a command; only the decoder routes those correctly
+                String content = kind < 5 ? "did you get my INVITE_ACCEPTED: thing?" : "hello there number " + i;
+                lines[i] = "MESSAGE:user" + random.nextInt(1000) + ":" + room + ":" + content;
+            } else if (kind < 90) {
+                lines[i] = "ADD_USER_INVITE:" + random.nextInt(1000) + ":" + random.nextInt(1000);
+            } else if (kind < 93) {
+                lines[i] = (random.nextBoolean() ? "INVITE_ACCEPTED:" : "INVITE_REJECTED:") + random.nextInt(1000) + ":" + random.nextInt(1000);
+            } else if (kind < 97) {
+                lines[i] = (random.nextBoolean() ? "JOIN_ROOM:" : "LEAVE_ROOM:") + random.nextInt(50);
+            } else {
+                lines[i] = "HISTORY_BEFORE:" + random.nextInt(1_000_000);
+            }
+        }
+        return lines;
+    }
+
+    // The routing ClientHandler.handleMessage did before the decoder, with the same parsing
+    private static long routeByContains(String message) {
+        if (message.startsWith("JOIN_ROOM:") || message.startsWith("LEAVE_ROOM:")) {
+            String[] parts = message.split(":");
+            int roomId = Integer.parseInt(parts[1]);
+            return parts[0].equals("JOIN_ROOM") ? roomId : -roomId;
+        } else if (message.startsWith("HISTORY_BEFORE:")) {
+            return Long.parseLong(message.substring("HISTORY_BEFORE:".length()).trim());
+        } else if (message.contains("ADD_USER_INVITE")) {
+            String[] parts = message.split(":");
+            return Integer.parseInt(parts[1]) + Integer.parseInt(parts[2]);
+        } else if (message.contains("INVITE_ACCEPTED")) {
+            String[] parts = message.split(":");
+            return Integer.parseInt(parts[1]);
+        } else if (message.contains("INVITE_REJECTED")) {
+            String[] parts = message.split(":");
+            return -Integer.parseInt(parts[1]);
+        } else {
+            String[] parts = message.split(":", 4);
+            if (parts.length == 4 && parts[0].equals("MESSAGE")) {
+                int roomId = parts[2].equals("null") ? -1 : Integer.parseInt(parts[2]);
+                return roomId + parts[3].length();
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package benchmarkPackage;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import serverPackage.*;
+
+// One chat line broadcast to N connected clients, the loop ChatServer.broadcast runs: enqueue on
+// every client's OutboundQueue, each held in the same kind of concurrent set. The writer pool is
+// replaced by running each drain inline into a discarding writer, so one operation is the whole
+// path from enqueue to the line leaving every queue, without sockets or thread hand-offs.
+// Scores are broadcasts per second; deliveries per second are that times the client count.
+// Usage: java -jar benchmarks/target/benchmarks.jar FanOutBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    @Param({"10", "100", "1000"})
+    public int clients;
+
+    private final Metrics.Counter queuedLines = new Metrics().counter("chat_lines_queued", "Lines queued to clients");
+    private final String line = ChatLines.line(123_456_789, "Alice", "hello everyone, how is it going?");
+    private Set<OutboundQueue> queues;
+
+    @Setup
+    public void setup() {
+        Executor inline = Runnable::run;
+        queues = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < clients; i++) {
+            queues.add(new OutboundQueue(new PrintWriter(Writer.nullWriter()), inline, 1024,
+                    OutboundQueue.OverflowPolicy.DROP_OLDEST, () -> { }, () -> true, queuedLines));
+        }
+    }
+
+    @Benchmark
+    public long broadcast() {
+        for (OutboundQueue queue : queues) {
+            queue.enqueue(line);
+        }
+        return queuedLines.value();
+    }
+}
@@ -0,0 +1,55 @@
+package benchmarkPackage;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import serverPackage.*;
+
+// Building the history blocks a client gets at login (MESSAGES:), when paging back
+// (HISTORY_PAGE:) and on resume (HISTORY_DELTA:): a page of recent messages taken from the
+// RecentMessages ring and written as one block of chat lines, as sendHistoryPage does.
+// - format: writing an already fetched page
+// - page: taking the page from the ring and writing it
+// Usage: java -jar benchmarks/target/benchmarks.jar HistoryBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+    private static final int PAGE_SIZE = 50; // chat.history.pageSize
+    private static final int BUFFERED = 2000;
+    private static final Set<Integer> LOBBY = Collections.singleton(-1); // A client that joined no rooms
+
+    private RecentMessages recent;
+    private List<ChatMessage> page;
+
+    @Setup
+    public void setup() throws Exception {
+        MessageSequence ids = new MessageSequence(StoreBenchmark.temporaryStore());
+        ids.seed();
+        recent = new RecentMessages(ids, BUFFERED, Long.MAX_VALUE);
+        for (int i = 0; i < BUFFERED; i++) {
+            recent.accept(i % 100, "user" + (i % 100), "message number " + i + " with a bit of text to it", -1);
+        }
+        page = recent.page(Long.MAX_VALUE, PAGE_SIZE, LOBBY);
+    }
+
+    @Benchmark
+    public int format() {
+        StringBuilder frame = new StringBuilder("MESSAGES:");
+        ChatLines.append(frame, page);
+        frame.append("\nHISTORY_END:").append(page.get(0).messageId);
+        return frame.length();
+    }
+
+    @Benchmark
+    public int page() {
+        StringBuilder frame = new StringBuilder("HISTORY_PAGE:");
+        List<ChatMessage> messages = recent.page(Long.MAX_VALUE, PAGE_SIZE, LOBBY);
+        ChatLines.append(frame, messages);
+        frame.append("\nHISTORY_END:").append(messages.get(0).messageId);
+        return frame.length();
+    }
+}
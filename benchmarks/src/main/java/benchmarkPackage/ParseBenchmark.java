@@ -0,0 +1,118 @@
+package benchmarkPackage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import protocolPackage.*;
+import serverPackage.ChatLines;
+
+// Inbound parsing on both ends of the connection, from bytes to something the handler can use:
+// - textServer: a text client's lines through readLine and CommandDecoder, as a ClientHandler
+//   reads them
+// - binaryServer: the same commands as binary frames through FrameReader and
+//   CommandDecoder.decode(frame)
+// - textClient: the server's chat lines as TEXT frames, read the way the client reads a binary
+//   connection, down to the message id
+// Each stream is replayed from memory (reset() goes back to its first byte), so only the
+// parsing is measured.
+// Usage: java -jar benchmarks/target/benchmarks.jar ParseBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    private ByteArrayInputStream textIn;
+    private BufferedReader reader;
+    private ByteArrayInputStream binaryIn;
+    private FrameReader serverFrames;
+    private ByteArrayInputStream clientIn;
+    private FrameReader clientFrames;
+
+    @Setup
+    public void setup() throws IOException {
+        String[] lines = DispatchBenchmark.corpus(DispatchBenchmark.CORPUS_SIZE);
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        try (Writer out = new OutputStreamWriter(text, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        textIn = new ByteArrayInputStream(text.toByteArray());
+        reader = new BufferedReader(new InputStreamReader(textIn, StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        BinaryClientEncoder encoder = new BinaryClientEncoder(binary);
+        for (String line : lines) {
+            encode(encoder, CommandDecoder.decode(line));
+        }
+        binaryIn = new ByteArrayInputStream(binary.toByteArray());
+        serverFrames = new FrameReader(binaryIn, BinaryProtocol.MAX_FRAME_LENGTH);
+
+        ByteArrayOutputStream outgoing = new ByteArrayOutputStream();
+        try (PrintWriter out = new PrintWriter(new TextFrameWriter(outgoing))) {
+            for (int i = 0; i < lines.length; i++) {
+                out.print(ChatLines.line(1_000_000 + i, "user" + (i % 1000), "hello there number " + i) + "\n");
+            }
+        }
+        clientIn = new ByteArrayInputStream(outgoing.toByteArray());
+        clientFrames = new FrameReader(clientIn, BinaryProtocol.MAX_FRAME_LENGTH);
+    }
+
+    @Benchmark
+    public ClientCommand textServer() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            textIn.reset();
+            line = reader.readLine();
+        }
+        return CommandDecoder.decode(line);
+    }
+
+    @Benchmark
+    public ClientCommand binaryServer() throws IOException {
+        Frame frame = serverFrames.next();
+        if (frame == null) {
+            binaryIn.reset();
+            frame = serverFrames.next();
+        }
+        return CommandDecoder.decode(frame);
+    }
+
+    @Benchmark
+    public long textClient() throws IOException {
+        Frame frame = clientFrames.next();
+        if (frame == null) {
+            clientIn.reset();
+            frame = clientFrames.next();
+        }
+        String message = frame.readString();
+        return message.startsWith("MSG:") ? Long.parseLong(message.substring(4, message.indexOf(':', 4))) : 0;
+    }
+
+    private static void encode(ClientEncoder encoder, ClientCommand command) throws IOException {
+        if (command instanceof ClientCommand.Chat) {
+            ClientCommand.Chat chat = (ClientCommand.Chat) command;
+            encoder.chat(chat.displayName, chat.roomId, chat.content);
+        } else if (command instanceof ClientCommand.Invite) {
+            ClientCommand.Invite invite = (ClientCommand.Invite) command;
+            encoder.invite(invite.invitedUserId, invite.senderId);
+        } else if (command instanceof ClientCommand.InviteResponse) {
+            ClientCommand.InviteResponse response = (ClientCommand.InviteResponse) command;
+            encoder.inviteResponse(response.accepted, response.inviterId, response.responderId);
+        } else if (command instanceof ClientCommand.RoomMembership) {
+            ClientCommand.RoomMembership membership = (ClientCommand.RoomMembership) command;
+            if (membership.join) {
+                encoder.joinRoom(membership.roomId);
+            } else {
+                encoder.leaveRoom(membership.roomId);
+            }
+        } else if (command instanceof ClientCommand.HistoryBefore) {
+            encoder.historyBefore(((ClientCommand.HistoryBefore) command).messageId);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package benchmarkPackage;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import serverPackage.*;
+
+// The persistence calls the server makes, against the embedded store in a temporary directory
+// (the stand-in for MySQL, which is not needed to run this):
+// - saveMessages: a write-behind batch of 200 messages, forced to disk as in production; the
+//   score counts messages
+// - historyPage: a 50-message page before a random id, as HISTORY_BEFORE asks for
+// - messagesAfter: the messages after a recent id, as a resuming client asks for
+// - findLogin: the lookup behind every login
+// Usage: java -jar benchmarks/target/benchmarks.jar StoreBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreBenchmark {
+    private static final int USERS = 100;
+    private static final int PRELOADED = 20_000;
+    private static final int BATCH = 200;
+    private static final int PAGE_SIZE = 50;
+
+    private static final Set<Integer> LOBBY = Collections.singleton(-1); // The batches below are lobby messages
+    private static final ChatStore.HistoryRowHandler ROWS = (messageId, displayName, content) -> { };
+
+    private EmbeddedChatStore store;
+    private final Random random = new Random(42);
+    private int written = PRELOADED;
+    private int login;
+
+    @Setup
+    public void setup() throws Exception {
+        store = temporaryStore();
+        for (int i = 0; i < PRELOADED; i += BATCH) {
+            store.saveMessages(batch(i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int saveMessages() throws SQLException {
+        store.saveMessages(batch(written));
+        written += BATCH;
+        return written;
+    }
+
+    @Benchmark
+    public int historyPage() throws SQLException {
+        return store.streamHistoryPage(PAGE_SIZE + 1 + random.nextInt(PRELOADED - PAGE_SIZE), PAGE_SIZE, LOBBY, ROWS);
+    }
+
+    @Benchmark
+    public int messagesAfter() throws SQLException {
+        return store.streamMessagesAfter(store.findMaxMessageId() - PAGE_SIZE, PAGE_SIZE + 1, LOBBY, ROWS);
+    }
+
+    @Benchmark
+    public int findLogin() throws SQLException {
+        return store.findLogin("user" + (login++ & Integer.MAX_VALUE) % USERS).userId;
+    }
+
+    // A fresh embedded store with USERS users, deleted when the JVM exits
+    static EmbeddedChatStore temporaryStore() throws IOException {
+        Path directory = Files.createTempDirectory("chat-bench");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(directory.toFile())));
+        UserStore users = new UserStore(directory.resolve("users.journal").toFile());
+        for (int i = 0; i < USERS; i++) {
+            users.addUser("user" + i, "User " + i, "pw");
+        }
+        return new EmbeddedChatStore(new MessageLog(directory.resolve("messages").toFile(), 64L << 20), users);
+    }
+
+    // Messages without ids, so the log numbers them as the table would
+    private static List<ChatMessage> batch(int first) {
+        List<ChatMessage> messages = new ArrayList<>(BATCH);
+        for (int i = first; i < first + BATCH; i++) {
+            int userId = 1 + i % USERS;
+            messages.add(new ChatMessage(-1, userId, "User " + (userId - 1), "message number " + i + " with a bit of text to it", -1, System.currentTimeMillis()));
+        }
+        return messages;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,975 @@
+package chatPackage;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.net.*;
+import protocolPackage.*;
+
+public class ChatClient{
+
+    private Socket socket;
+    private BufferedReader in;
+    private PrintWriter out;
+    private ClientEncoder encoder; // Text or binary, whichever the server agreed to
+    private FrameReader frames;    // Only set on a binary connection
+    // -Dchat.protocol=binary asks for the binary protocol and falls back to text if the server declines
+    private boolean useBinaryProtocol = "binary".equalsIgnoreCase(System.getProperty("chat.protocol", "text"));
+    private String username;
+    private String password;
+    private int loginAttempts = 5;
+    private ChatInterface chatInterface;
+    private int userId = -1;
+    private boolean cancelConnection = false;  // Flag to control connection retry
+    private String displayName = null;
+    private Integer currentRoomId = null; // null sends to the lobby, like clients without rooms
+    private volatile long oldestMessageId = 0; // Cursor for "load older"; 0 once the server has nothing older
+    private java.util.List<String> historyLines = null; // Non-null while a history block is arriving
+    private boolean historyIsOlderPage = false;
+    private boolean historyIsDelta = false;
+    // Server lines by the word before their first ':'; lines without a registered word are chat
+    private final Map<String, Consumer<String>> lineHandlers = new HashMap<>();
+    private final Map<Integer, String> onlineContacts = new TreeMap<>(); // user_id -> display name
+    private final String serverAddress;
+    private final int port;
+    // A PING goes out after this long without sending anything; the server answers each one, so
+    // three intervals without hearing from it means the server or the path to it is gone
+    private static final long HEARTBEAT_INTERVAL_MILLIS = Long.getLong("chat.heartbeat.intervalMs", 30_000L);
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long lastSent = System.currentTimeMillis();
+    private volatile long lastReceived = System.currentTimeMillis();
+    private long pingSequence = 0;
+    // Reconnect delays grow from the base to the cap, each drawn at random below the current bound
+    // (full jitter) so clients dropped together by a server restart do not all come back at once
+    private static final long RECONNECT_BASE_MILLIS = Long.getLong("chat.reconnect.baseMs", 500L);
+    private static final long RECONNECT_MAX_MILLIS = Long.getLong("chat.reconnect.maxMs", 30_000L);
+    private volatile String sessionToken = null; // From SESSION:, sent back in RESUME after a reconnect
+    private volatile long lastSeenMessageId = 0; // Highest MSG:<id> received, so a resume only fetches what was missed
+    // Messages kept on disk between runs for this server and user; null until login or if it failed
+    private volatile MessageCache cache;
+    private String cacheUsername;
+    private volatile boolean cacheShown = false; // The cached history has been rendered for this cache
+    private static final int HISTORY_PAGE_SIZE = Integer.getInteger("chat.history.pageSize", 50);
+
+    public ChatClient(String serverAddress, int port, ChatInterface chatInterface) {
+        this.chatInterface = chatInterface;
+        this.serverAddress = serverAddress;
+        this.port = port;
+        registerLineHandlers();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeCache, "chat-cache-close"));
+        connectToServer(serverAddress, port, false);
+        heartbeat.scheduleAtFixedRate(this::checkHeartbeat, HEARTBEAT_INTERVAL_MILLIS / 3, HEARTBEAT_INTERVAL_MILLIS / 3, TimeUnit.MILLISECONDS);
+    }
+
+    private void connectToServer(String serverAddress, int port, boolean afterDrop) {
+        new Thread(() -> {
+            int attempt = afterDrop ? 0 : -1; // After a drop even the first attempt waits, so not everyone reconnects in the same instant
+            while (!cancelConnection) {
+                chatInterface.disableLogin();
+                if (attempt >= 0 && !sleepBeforeReconnect(attempt)) {
+                    return;
+                }
+                attempt++;
+                try {
+                    socket = new Socket(serverAddress, port);
+                    if (useBinaryProtocol && !negotiateBinary()) {
+                        useBinaryProtocol = false;
+                        socket.close();
+                        continue; // Server only speaks text; reconnect with the text protocol
+                    }
+                    if (!useBinaryProtocol) {
+                        frames = null;
+                        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                        out = new PrintWriter(socket.getOutputStream(), true);
+                        encoder = new TextClientEncoder(out);
+                    }
+
+                    lastSent = lastReceived = System.currentTimeMillis();
+                    // Start a thread to listen for incoming messages
+                    new Thread(new IncomingMessageHandler()).start();
+
+                    chatInterface.displayMessage("Connected to the server.", Color.BLACK); // Add Color
+                    String token = sessionToken;
+                    if (token != null) {
+                        long lastSeen = lastSeenMessageId;
+                        send(e -> e.resume(token, lastSeen)); // Log straight back in; RESUME_FAILED falls back to the password
+                    } else {
+                        chatInterface.enableLogin();
+                    }
+                    break; // Exit loop once connected
+
+                } catch (IOException e) {
+                    chatInterface.displayMessage("Error: Unable to connect to the server. Retrying...", Color.RED); // Add Color
+                }
+            }
+        }).start();
+    }
+
+    // Returns false if interrupted
+    private boolean sleepBeforeReconnect(int attempt) {
+        long bound = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_BASE_MILLIS << Math.min(attempt, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private boolean negotiateBinary() throws IOException {
+        OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+        InputStream input = new BufferedInputStream(socket.getInputStream());
+        BinaryProtocol.writeClientHandshake(output);
+        socket.setSoTimeout(3000); // An older server waits for a text line and never answers
+        try {
+            if (BinaryProtocol.readServerHandshake(input) < 0) {
+                return false;
+            }
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+        frames = new FrameReader(input, BinaryProtocol.MAX_FRAME_LENGTH);
+        encoder = new BinaryClientEncoder(output);
+        return true;
+    }
+
+    // Next line from the server; on a binary connection each TEXT frame carries one line
+    private String readLine() throws IOException {
+        if (frames == null) {
+            return in.readLine();
+        }
+        protocolPackage.Frame frame; // Qualified: java.awt has a Frame too
+        while ((frame = frames.next()) != null) {
+            if (frame.type() == BinaryProtocol.TEXT) {
+                return frame.readString();
+            }
+        }
+        return null;
+    }
+
+    private void checkHeartbeat() {
+        Socket current = socket;
+        if (current == null || current.isClosed() || encoder == null) {
+            return; // Not connected; connectToServer is already retrying
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastReceived > 3 * HEARTBEAT_INTERVAL_MILLIS) {
+            chatInterface.displayMessage("Server is not responding.", Color.RED);
+            try {
+                current.close(); // Ends the reader, which reconnects
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else if (now - lastSent >= HEARTBEAT_INTERVAL_MILLIS) {
+            long sequence = ++pingSequence;
+            send(e -> e.ping(sequence));
+        }
+    }
+
+    // Called by the reader once the connection is gone
+    private void reconnect() {
+        if (cancelConnection) {
+            return;
+        }
+        displayName = null; // The server dropped the session with the connection
+        userId = -1;
+        historyLines = null;
+        onlineContacts.clear();
+        chatInterface.updateUserList(new String[0]);
+        chatInterface.displayMessage("Connection lost. Reconnecting...", Color.RED);
+        connectToServer(serverAddress, port, true);
+    }
+
+    private void send(ClientEncoder.Call call) {
+        lastSent = System.currentTimeMillis();
+        try {
+            call.send(encoder);
+        } catch (IOException e) {
+            chatInterface.displayMessage("Error: Unable to reach the server.", Color.RED);
+        }
+    }
+
+    public void cancelConnectionAttempt() {
+        cancelConnection = true;
+        try {
+            if (socket != null && !socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void sendLoginCredentials(String username, String password) {
+        this.username = username;
+        this.password = password;
+        openCache(username);
+        MessageCache current = cache;
+        long since = current == null ? 0 : current.lastMessageId();
+        lastSeenMessageId = Math.max(lastSeenMessageId, since);
+        if (since > 0) {
+            send(e -> e.loginSince(username, password, since)); // The server sends only what the cache is missing
+        } else {
+            send(e -> e.login(username, password));
+        }
+    }
+
+    private void openCache(String username) {
+        if (cache != null && username.equals(cacheUsername)) {
+            return;
+        }
+        closeCache();
+        try {
+            cache = MessageCache.forUser(serverAddress, port, username);
+            cacheUsername = username;
+            cacheShown = false;
+        } catch (IOException e) {
+            System.out.println("Message cache unavailable: " + e.getMessage());
+        }
+    }
+
+    private void closeCache() {
+        MessageCache current = cache;
+        cache = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void storeInCache(long messageId, String line) {
+        MessageCache current = cache;
+        if (current == null || messageId <= 0) {
+            return;
+        }
+        try {
+            current.append(messageId, MessageCache.LOBBY, line);
+        } catch (IOException e) {
+            System.out.println("Message cache disabled: " + e.getMessage());
+            closeCache();
+        }
+    }
+
+    // The newest cached messages, shown as soon as the login succeeds; what is newer follows from the server
+    private void showCachedHistory() {
+        MessageCache current = cache;
+        if (current == null || cacheShown) {
+            return;
+        }
+        cacheShown = true;
+        try {
+            java.util.List<TranscriptLine> lines = toTranscript(current.latest(MessageCache.LOBBY, HISTORY_PAGE_SIZE));
+            if (!lines.isEmpty()) {
+                oldestMessageId = lines.get(0).messageId;
+                chatInterface.appendMessages(lines);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static java.util.List<TranscriptLine> toTranscript(java.util.List<MessageCache.Entry> entries) {
+        java.util.List<TranscriptLine> lines = new ArrayList<>(entries.size());
+        for (MessageCache.Entry entry : entries) {
+            lines.add(new TranscriptLine(entry.line, Color.BLACK, entry.messageId));
+        }
+        return lines;
+    }
+
+    public void sendMessage(String message) {
+        if (message.startsWith("/join ") || message.startsWith("/leave ")) {
+            sendRoomCommand(message);
+            return;
+        }
+        if (displayName != null) {
+                int roomId = currentRoomId == null ? -1 : currentRoomId;
+                send(e -> e.chat(displayName, roomId, message));
+                 //chatInterface.displayMessage("You: " + message, Color.BLACK); // Change to dark green if desired
+        } else {
+            System.out.println("Error: Login is required.");
+        }
+    }
+
+    // "/join <roomId>" switches the room messages are sent to, "/leave <roomId>" goes back to the lobby
+    private void sendRoomCommand(String command) {
+        String[] parts = command.trim().split("\\s+");
+        try {
+            int roomId = Integer.parseInt(parts[1]);
+            if (parts[0].equals("/join")) {
+                send(e -> e.joinRoom(roomId));
+            } else {
+                send(e -> e.leaveRoom(roomId));
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            chatInterface.displayMessage("Usage: /join <roomId> or /leave <roomId>", Color.RED);
+        }
+    }
+
+    private void handleRoomAcknowledgement(String message) {
+        int roomId = Integer.parseInt(message.substring(message.indexOf(':') + 1));
+        if (message.startsWith("JOINED_ROOM:")) {
+            currentRoomId = roomId;
+            chatInterface.displayMessage("Joined room " + roomId + ". Messages now go to this room.", Color.BLUE);
+        } else {
+            if (currentRoomId != null && currentRoomId == roomId) {
+                currentRoomId = null;
+            }
+            chatInterface.displayMessage("Left room " + roomId + ".", Color.BLUE);
+        }
+    }
+
+    private void registerLineHandlers() {
+        lineHandlers.put("USER_ID", message -> userId = Integer.parseInt(message.split(":")[1]));
+        lineHandlers.put("DISPLAY_NAME", message -> {
+            displayName = message.split(":")[1];
+            chatInterface.displayMessage("Your display name is: " + displayName, Color.BLUE); // Add Color
+        });
+        lineHandlers.put("SESSION", message -> sessionToken = message.substring("SESSION:".length()));
+        lineHandlers.put("RESUME_FAILED", message -> {
+            sessionToken = null; // Expired, or the server's secret changed
+            if (username != null && password != null) {
+                sendLoginCredentials(username, password);
+            } else {
+                chatInterface.enableLogin();
+            }
+        });
+        lineHandlers.put("MSG", message -> {
+            long messageId = ServerLines.messageIdOf(message);
+            String line = stripMessageId(message);
+            storeInCache(messageId, line);
+            handleChatLine(line, messageId);
+        });
+        lineHandlers.put("MESSAGES", this::handleHistoryLine);
+        lineHandlers.put("HISTORY_PAGE", this::handleHistoryLine);
+        lineHandlers.put("HISTORY_DELTA", this::handleHistoryLine);
+        lineHandlers.put("JOINED_ROOM", this::handleRoomAcknowledgement);
+        lineHandlers.put("LEFT_ROOM", this::handleRoomAcknowledgement);
+        lineHandlers.put("ADD_USER_INVITE", this::handleInvitations);
+        lineHandlers.put("INVITE_ACCEPTED", message -> { // The server only sends these to the inviter
+            String parts[] = message.split(":");
+            chatInterface.displayMessage("User " + parts[2] + " accepted yout Invitation",Color.GREEN);
+        });
+        lineHandlers.put("INVITE_REJECTED", message -> {
+            String parts[] = message.split(":");
+            chatInterface.displayMessage("User " + parts[2] + " rejected yout Invitation",Color.RED);
+        });
+        lineHandlers.put("Users", message -> {
+            String[] parts = message.split(":");
+            String[] users = Arrays.copyOfRange(parts, 1, parts.length); // Skip "Users" part
+            chatInterface.updateUserList(users);
+        });
+        lineHandlers.put("PRESENCE", this::handlePresence);
+        lineHandlers.put("PONG", message -> { }); // Only proves the server is alive, which reading it already recorded
+        lineHandlers.put("ERROR", message -> {
+            if (message.equals("ERROR: Invalid username or password. Please try again.")) {
+                handleInvalidLogin();
+            } else {
+                handleChatLine(message);
+            }
+        });
+    }
+
+    // Classifies each line once by its leading word instead of scanning it for every command name
+    private void dispatchLine(String message) {
+        if (historyLines != null) {
+            handleHistoryLine(message); // Inside a history block every line is a stored message
+            return;
+        }
+        String word = ServerLines.leadingWord(message);
+        Consumer<String> handler = lineHandlers.get(word);
+        if (handler != null) {
+            handler.accept(message);
+        } else if (message.startsWith("Welcome")) {
+            chatInterface.displayMessage("Login successful! You can start chatting.", Color.RED); // Add Color
+            chatInterface.clearLoginFields();
+            chatInterface.enableChat();
+            showCachedHistory();
+        } else if (word.equals(String.valueOf(userId))) {
+            chatInterface.displayMessage(message,Color.RED); // <userId>:RESP_USER_INVITE / <userId>:USER_NOT_FOUND
+        } else {
+            handleChatLine(message);
+        }
+    }
+
+    // PRESENCE:<userId>:ONLINE|OFFLINE:<displayName>, sent for the user's contacts only
+    private void handlePresence(String message) {
+        String[] parts = message.split(":", 4);
+        int contactId = Integer.parseInt(parts[1]);
+        if (parts[2].equals("ONLINE")) {
+            onlineContacts.put(contactId, parts[3]);
+        } else {
+            onlineContacts.remove(contactId);
+        }
+        java.util.List<String> users = new ArrayList<>(onlineContacts.size());
+        for (Map.Entry<Integer, String> contact : onlineContacts.entrySet()) {
+            users.add(contact.getValue() + " (" + contact.getKey() + ")");
+        }
+        chatInterface.updateUserList(users.toArray(new String[0]));
+    }
+
+    private void handleInvalidLogin() {
+        loginAttempts--;
+        chatInterface.displayMessage("Invalid login. Attempts remaining: " + loginAttempts, Color.RED); // Add Color
+        if (loginAttempts > 0) {
+            chatInterface.clearLoginFields();
+        } else {
+            chatInterface.disableLogin();
+            chatInterface.displayMessage("Maximum login attempts reached. Please restart the application.", Color.RED); // Add Color
+        }
+    }
+
+    // MSG:<messageId>:<displayName>: <content> -> <displayName>: <content>, remembering the id
+    private String stripMessageId(String message) {
+        lastSeenMessageId = Math.max(lastSeenMessageId, ServerLines.messageIdOf(message));
+        return ServerLines.withoutMessageId(message);
+    }
+
+    private void handleChatLine(String message) {
+        handleChatLine(message, 0);
+    }
+
+    private void handleChatLine(String message, long messageId) {
+        if (message.startsWith(displayName + " has joined")) {
+            return;
+        }
+
+        String[] messageParts = message.split(": ", 2);
+        Color DarkGreen = new Color(0, 100, 10);
+
+        if (messageParts.length == 2) {
+            String senderDisplayName = messageParts[0];
+            String messageContent = messageParts[1];
+
+            if (senderDisplayName.equals(displayName)) {
+                chatInterface.displayMessage("You: " + messageContent, DarkGreen, messageId); // Change to dark green if desired
+            } else {
+                chatInterface.displayMessage(senderDisplayName + ": " + messageContent, Color.BLUE, messageId);
+            }
+        } else {
+            chatInterface.displayMessage(message, Color.BLACK);
+        }
+    }
+
+    public void requestOlderHistory() {
+        if (oldestMessageId == 0) {
+            chatInterface.displayMessage("No older messages.", Color.GRAY);
+            return;
+        }
+        long before = oldestMessageId;
+        MessageCache current = cache;
+        if (current != null) {
+            try {
+                java.util.List<TranscriptLine> cached = toTranscript(current.before(MessageCache.LOBBY, before, HISTORY_PAGE_SIZE));
+                if (!cached.isEmpty()) {
+                    oldestMessageId = cached.get(0).messageId;
+                    chatInterface.prependMessages(cached); // No round trip while the cache reaches back far enough
+                    return;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        send(e -> e.historyBefore(before));
+    }
+
+    public boolean hasOlderHistory() {
+        return oldestMessageId != 0;
+    }
+
+    // The transcript let go of its oldest rows; the next older page starts above what it still holds
+    public void restartHistoryBefore(long beforeMessageId) {
+        oldestMessageId = beforeMessageId;
+    }
+
+    // History arrives as MESSAGES: (login), HISTORY_PAGE: (load older) or HISTORY_DELTA: (what was
+    // missed while reconnecting), one line per message, closed by HISTORY_END:<oldestMessageId>
+    private void handleHistoryLine(String message) {
+        if (ServerLines.isHistoryStart(message)) {
+            historyLines = new ArrayList<>();
+            historyIsOlderPage = message.startsWith("HISTORY_PAGE:");
+            historyIsDelta = message.startsWith("HISTORY_DELTA:");
+        } else if (ServerLines.isHistoryEnd(message)) {
+            if (!historyIsDelta) {
+                oldestMessageId = Long.parseLong(message.substring("HISTORY_END:".length())); // A delta says nothing about older pages
+            }
+            handleRetrievedMessages(historyLines, historyIsOlderPage, historyIsDelta);
+            historyLines = null;
+        } else {
+            historyLines.add(message);
+        }
+    }
+
+    private void handleRetrievedMessages(java.util.List<String> lines, boolean olderPage, boolean delta) {
+        java.util.List<TranscriptLine> messages = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            long messageId = ServerLines.messageIdOf(line);
+            String msg = stripMessageId(line);
+            String[] messageParts = msg.split(": ", 2);
+
+            if (messageParts.length == 2) {
+                String senderDisplayName = messageParts[0];
+                String messageContent = messageParts[1];
+                messages.add(new TranscriptLine(senderDisplayName + ": " + messageContent, Color.BLACK, messageId));
+            }
+        }
+
+        if (!olderPage) {
+            cacheHistory(messages, delta);
+            chatInterface.appendMessages(messages);
+        } else if (messages.isEmpty()) {
+            chatInterface.displayMessage("No older messages.", Color.GRAY);
+        } else {
+            chatInterface.prependMessages(messages); // Older messages belong above what is shown
+        }
+    }
+
+    // Deltas continue the cache. The latest page (sent when the server found the gap too large)
+    // continues it only if it overlaps or directly follows; otherwise the cache starts over from it.
+    private void cacheHistory(java.util.List<TranscriptLine> messages, boolean delta) {
+        MessageCache current = cache;
+        if (current == null || messages.isEmpty()) {
+            return;
+        }
+        long last = current.lastMessageId();
+        if (!delta && last > 0 && messages.get(0).messageId > last + 1) {
+            try {
+                current.clear();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (TranscriptLine message : messages) {
+            storeInCache(message.messageId, message.text);
+        }
+    }
+
+    private void handleInvitations(String message) {
+        String parts[] = message.split(":");
+        System.out.println(message);
+        if(parts[1].equals(String.valueOf(userId))) {
+            int invitationSenderId = Integer.parseInt(parts[2]);
+
+            int response = JOptionPane.showConfirmDialog(null, displayName + "? Do you want to accept an invitation from " + invitationSenderId, "Send Invitation", JOptionPane.YES_NO_OPTION);
+
+            if(response == JOptionPane.YES_OPTION) {
+                send(e -> e.inviteResponse(true, invitationSenderId, userId));
+            } else if(response == JOptionPane.NO_OPTION) {
+                send(e -> e.inviteResponse(false, invitationSenderId, userId));
+            }
+        } else {
+            System.out.println("User Id does not match");
+            return;
+        }
+    }
+
+    private class IncomingMessageHandler implements Runnable {
+        @Override
+        public void run() {
+            try {
+                String message;
+                while ((message = readLine()) != null) {
+                    lastReceived = System.currentTimeMillis();
+                    dispatchLine(message);
+                }
+            } catch (IOException e) {
+                System.out.println("Connection lost: " + e.getMessage());
+            }
+            reconnect();
+        }
+    }
+
+    public void sendInvitation(int userToInvite) {
+        send(e -> e.invite(userToInvite, userId)); //AddUser:<Receiver>:<Sender>
+    }
+    
+    public boolean isLoggedIn() {
+        return displayName != null;
+    }
+
+    public static class ChatInterface  extends JFrame{
+        private static final long serialVersionUID = 1L;
+
+        private JFrame frame;
+        private JList<TranscriptLine> chatArea; // Renders only the visible rows of the transcript
+        private JTextField messageField;
+        private JTextField usernameField;
+        private JPasswordField passwordField;
+        private JButton sendButton;
+        private JButton loginButton;
+        private JButton addUserButton;
+        private JButton loadOlderButton;
+        private JPanel userPanel;
+        private JButton cancelButton;
+        private ChatClient chatClient;
+        private JScrollPane chatScroll;
+        private final TranscriptModel transcript = new TranscriptModel();
+        // Rows kept while following the live end; scrolling back through older pages may hold up
+        // to twice as many until the view returns to the bottom
+        private static final int TRANSCRIPT_LINES = Integer.getInteger("chat.transcript.maxLines", 1000);
+        private boolean olderPageRequested = false; // EDT only
+        // Lines waiting for the EDT. Any thread may queue them; one scheduled pass drains the queue and
+        // adds each run of lines to the transcript with a single model update instead of one per line
+        private final ConcurrentLinkedQueue<PendingLines> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean renderScheduled = new AtomicBoolean();
+        // Caps a pass so a history replay cannot hold the EDT; the rest goes in the next pass
+        private static final int MAX_LINES_PER_PASS = 2000;
+
+        private static final class PendingLines {
+            final java.util.List<TranscriptLine> lines;
+            final boolean prepend;
+
+            PendingLines(java.util.List<TranscriptLine> lines, boolean prepend) {
+                this.lines = lines;
+                this.prepend = prepend;
+            }
+        }
+
+        // Plain label per row in the line's colour
+        private static final class TranscriptRenderer extends DefaultListCellRenderer {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                if (!isSelected) {
+                    setForeground(((TranscriptLine) value).color);
+                }
+                return this;
+            }
+        }
+
+        public ChatInterface() {
+            initializeUI();
+        }
+
+        public void setChatClient(ChatClient chatClient) {
+            this.chatClient = chatClient;
+        }
+
+        private void initializeUI() {
+            frame = new JFrame("Chat Client");
+            chatArea = new JList<>(transcript);
+            chatArea.setCellRenderer(new TranscriptRenderer());
+            messageField = new JTextField(40);
+            usernameField = new JTextField(15);
+            passwordField = new JPasswordField(15);
+            sendButton = new JButton("Send");
+            loginButton = new JButton("Login");
+            addUserButton = new JButton("Add User");
+            loadOlderButton = new JButton("Load older");
+            cancelButton = new JButton("Logout and Close");
+            userPanel = new JPanel();
+
+            // Set background colors
+            frame.getContentPane().setBackground(new Color(255, 255, 255));
+            chatArea.setBackground(new Color(236, 229, 221));
+            messageField.setBackground(new Color(255, 255, 255));
+            usernameField.setBackground(new Color(255, 255, 255));
+            passwordField.setBackground(new Color(255, 255, 255));
+
+            chatArea.setForeground(new Color(0, 0, 0));
+            messageField.setForeground(new Color(0, 0, 0));
+            usernameField.setForeground(new Color(0, 0, 0));
+            passwordField.setForeground(new Color(0, 0, 0));
+
+            // Set button colors
+            sendButton.setBackground(new Color(37, 211, 102));
+            sendButton.setForeground(new Color(255, 255, 255));
+            loginButton.setBackground(new Color(37, 211, 102));
+            loginButton.setForeground(Color.WHITE);
+            addUserButton.setBackground(new Color(0, 123, 255));
+            addUserButton.setForeground(Color.WHITE);
+            loadOlderButton.setBackground(new Color(0, 123, 255));
+            loadOlderButton.setForeground(Color.WHITE);
+            cancelButton.setBackground(new Color(255, 0, 0));
+            cancelButton.setForeground(Color.WHITE);
+
+            // Set fonts
+            Font font = new Font("Poppins", Font.PLAIN, 20);
+            chatArea.setFont(font);
+            // A fixed row height lets the list lay out and scroll without measuring every row
+            chatArea.setFixedCellHeight(chatArea.getFontMetrics(font).getHeight() + 4);
+            messageField.setFont(font);
+            usernameField.setFont(font);
+            passwordField.setFont(font);
+            sendButton.setFont(font);
+            loginButton.setFont(font);
+            addUserButton.setFont(font);
+            loadOlderButton.setFont(font);
+            cancelButton.setFont(font);
+
+            JScrollPane scrollPane = new JScrollPane(chatArea);
+            chatScroll = scrollPane;
+            // Reaching the top pages in the next older history page, like pressing "Load older"
+            scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+                JScrollBar bar = (JScrollBar) e.getAdjustable();
+                if (e.getValue() == bar.getMinimum() && bar.getMaximum() > bar.getVisibleAmount() && !olderPageRequested
+                        && chatClient != null && chatClient.isLoggedIn() && chatClient.hasOlderHistory()) {
+                    olderPageRequested = true;
+                    chatClient.requestOlderHistory();
+                }
+            });
+            userPanel.setLayout(new BorderLayout());
+            userPanel.setPreferredSize(new Dimension(300, 500));
+
+            JPanel topPanel = new JPanel(new BorderLayout());
+            topPanel.add(new JLabel("Online Users"), BorderLayout.WEST);
+            topPanel.add(addUserButton, BorderLayout.EAST);
+            userPanel.add(topPanel, BorderLayout.NORTH);
+
+            JTextArea usersArea = new JTextArea();
+            usersArea.setEditable(false);
+            userPanel.add(new JScrollPane(usersArea), BorderLayout.CENTER);
+
+            JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, scrollPane, userPanel);
+            splitPane.setDividerLocation(300);
+            splitPane.setResizeWeight(0.8);
+
+            frame.setLayout(new BorderLayout());
+            frame.add(splitPane, BorderLayout.CENTER);
+
+            // Create the login panel
+            JPanel loginPanel = new JPanel();
+            loginPanel.setLayout(new FlowLayout(FlowLayout.LEFT)); // Align components to the left
+
+            // Create and set the icon
+            // Create and set the icon
+            ImageIcon icon = new ImageIcon("C:\\Users\\pruth\\OneDrive\\Documents\\NetBeansProjects\\Chat Application\\src\\chatPackage\\whatsapp.jpg"); // Specify the path to your image
+            JLabel iconLabel = new JLabel(icon);
+            loginPanel.add(iconLabel); // Add the icon label to the panel
+
+            
+            
+// Add the "WhatsApp (Clone)" label in green
+            JLabel cloneLabel = new JLabel("WhatsApp (Clone)                     ");
+            cloneLabel.setFont(font); // Set the font (optional)
+            cloneLabel.setForeground(new Color(0, 100, 0)); // Set the text color to green
+            loginPanel.add(cloneLabel); // Add the clone label to the panel
+
+// Username label and field
+            JLabel usernameLabel = new JLabel("Username:");
+            usernameLabel.setFont(font); // Set the font
+            loginPanel.add(usernameLabel);
+            loginPanel.add(usernameField);
+            loginPanel.setBackground(new Color(255, 255, 255));
+
+// Password label and field
+            JLabel passwordLabel = new JLabel("Password:");
+            passwordLabel.setFont(font); // Set the font
+            loginPanel.add(passwordLabel);
+            loginPanel.add(passwordField);
+
+// Add buttons
+            loginPanel.add(cancelButton);
+            loginPanel.add(loginButton);
+
+            // Add the login panel to the frame
+            frame.add(loginPanel, BorderLayout.NORTH);
+
+            JPanel inputPanel = new JPanel();
+            inputPanel.add(loadOlderButton);
+            inputPanel.add(messageField);
+            inputPanel.add(sendButton);
+            frame.add(inputPanel, BorderLayout.SOUTH);
+
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.pack();
+            frame.setVisible(true);
+
+            sendButton.setEnabled(false);
+            addUserButton.setEnabled(false);
+            loadOlderButton.setEnabled(false);
+
+            usernameField.addActionListener(e -> attemptLogin());
+            passwordField.addActionListener(e -> attemptLogin());
+            loginButton.addActionListener(e -> attemptLogin());
+            sendButton.addActionListener(e -> sendMessage());
+            messageField.addActionListener(e -> sendMessage());
+            addUserButton.addActionListener(e -> addUser());
+            loadOlderButton.addActionListener(e -> chatClient.requestOlderHistory());
+            cancelButton.addActionListener(e -> cancelConnectionAttempt());
+        }
+
+        private void attemptLogin() {
+            String username = usernameField.getText();
+            String password = new String(passwordField.getPassword());
+            chatClient.sendLoginCredentials(username, password);
+        }
+
+        private void sendMessage() {
+            String message = messageField.getText();
+            if (!message.isEmpty()) {
+                chatClient.sendMessage(message);
+                messageField.setText("");
+            }
+        }
+        
+        private void addUser() {
+            try {
+                int userToInvite = Integer.parseInt(JOptionPane.showInputDialog(null, "Send an invitation to Add User with his/her User ID: ", "User ID Input", JOptionPane.QUESTION_MESSAGE));
+                chatClient.sendInvitation(userToInvite);
+            } catch(NumberFormatException e) {
+                displayMessage("Please enter some input!",Color.BLACK);
+            }
+        }
+
+        public void clearLoginFields() {
+            usernameField.setText("");
+            passwordField.setText("");
+        }
+
+        public void disableLogin() {
+            loginButton.setEnabled(false);
+            usernameField.setEditable(false);
+            passwordField.setEditable(false);
+            sendButton.setToolTipText(null);
+            messageField.setToolTipText(null);
+        }
+
+        public void enableLogin() {
+            loginButton.setEnabled(true);
+            usernameField.setEditable(true);
+            passwordField.setEditable(true);
+            sendButton.setToolTipText("Please login first to send messages");
+            messageField.setToolTipText("Please login first to send messages");
+        }
+
+        public void enableChat() {
+            sendButton.setToolTipText(null);
+            messageField.setToolTipText(null);
+            sendButton.setEnabled(true);
+            messageField.setEditable(true);
+            loginButton.setEnabled(false);
+            usernameField.setEditable(false);
+            passwordField.setEditable(false);
+            addUserButton.setEnabled(true);
+            loadOlderButton.setEnabled(true);
+        }
+
+        private void cancelConnectionAttempt() {
+            chatClient.cancelConnectionAttempt();
+            displayMessage("Connection canceled by user.", Color.BLACK);
+            if (chatClient.isLoggedIn()) {
+                messageField.setEnabled(true);
+                sendButton.setEnabled(true);
+                addUserButton.setEnabled(true);
+            } else {
+                usernameField.setEnabled(true);
+                passwordField.setEnabled(true);
+                loginButton.setEnabled(true);
+            }
+            messageField.setEditable(false);
+            sendButton.setEnabled(false);
+            System.exit(1);
+        }
+
+        // Safe from any thread: the line is shown on the next render pass
+        public void displayMessage(String message, Color color) {
+            displayMessage(message, color, 0);
+        }
+
+        public void displayMessage(String message, Color color, long messageId) {
+            enqueue(new PendingLines(Collections.singletonList(new TranscriptLine(message, color, messageId)), false));
+        }
+
+        public void appendMessages(java.util.List<TranscriptLine> lines) {
+            enqueue(new PendingLines(new ArrayList<>(lines), false));
+        }
+
+        // Inserts the lines, in order, above everything already in the chat area
+        public void prependMessages(java.util.List<TranscriptLine> lines) {
+            enqueue(new PendingLines(new ArrayList<>(lines), true));
+        }
+
+        private void enqueue(PendingLines lines) {
+            pending.add(lines);
+            if (renderScheduled.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this::renderPending);
+            }
+        }
+
+        // Runs on the EDT
+        private void renderPending() {
+            renderScheduled.set(false); // Before draining, so lines queued during the pass schedule another
+            java.util.List<TranscriptLine> run = new ArrayList<>();
+            int rendered = 0;
+            PendingLines next;
+            while (rendered < MAX_LINES_PER_PASS && (next = pending.poll()) != null) {
+                if (next.prepend) {
+                    appendRun(run);
+                    prependPage(next.lines);
+                } else {
+                    run.addAll(next.lines);
+                }
+                rendered += next.lines.size();
+            }
+            appendRun(run);
+            long dropped = transcript.takeDroppedMessageId();
+            if (dropped > 0) {
+                chatClient.restartHistoryBefore(dropped + 1);
+                olderPageRequested = false;
+            }
+            if (!pending.isEmpty() && renderScheduled.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this::renderPending);
+            }
+        }
+
+        private void appendRun(java.util.List<TranscriptLine> run) {
+            if (run.isEmpty()) {
+                return;
+            }
+            JScrollBar bar = chatScroll.getVerticalScrollBar();
+            boolean following = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - chatArea.getFixedCellHeight();
+            // While the user reads older messages the rows above stay put, up to the hard bound
+            int removed = transcript.append(run, following ? TRANSCRIPT_LINES : 2 * TRANSCRIPT_LINES);
+            run.clear();
+            chatScroll.validate(); // Lay out the new rows now so the scroll position below is based on them
+            if (following) {
+                chatArea.ensureIndexIsVisible(transcript.getSize() - 1);
+            } else if (removed > 0) {
+                bar.setValue(bar.getValue() - removed * chatArea.getFixedCellHeight());
+            }
+        }
+
+        private void prependPage(java.util.List<TranscriptLine> page) {
+            olderPageRequested = false;
+            JScrollBar bar = chatScroll.getVerticalScrollBar();
+            int value = bar.getValue();
+            int added = transcript.prepend(page, 2 * TRANSCRIPT_LINES);
+            // Keep the rows that were in view where they were instead of jumping to the new top
+            chatScroll.validate();
+            bar.setValue(value + added * chatArea.getFixedCellHeight());
+        }
+
+        public void updateUserList(String[] users) {
+            JTextArea usersArea = (JTextArea) ((JScrollPane) userPanel.getComponent(1)).getViewport().getView();
+            usersArea.setText(String.join("\n",users));
+        }
+    }
+
+public static void main(String[] args) {
+    SwingUtilities.invokeLater(() -> {
+        ChatInterface chatInterface = new ChatInterface();
+        chatInterface.setSize(500, 500); // Set the size of the chat interface
+        chatInterface.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // Ensure the application closes on exit
+        ChatClient client = new ChatClient("localhost", 12345, chatInterface);
+        chatInterface.setChatClient(client);
+//        chatInterface.setVisible(true); // Make the chat interface visible
+    });
+}
+
+}
\ No newline at end of file
@@ -0,0 +1,832 @@
+package chatPackage;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import protocolPackage.*;
+
+// Headless load generator: thousands of simulated users in one JVM, each a real connection that
+// speaks the client protocol through ChatClient's encoders (text, or binary with -Dchat.protocol)
+// and reads the server's lines with ServerLines. A few selector loops carry every connection, so
+// there is no window and no thread per user.
+//
+// Each user logs in as load<i> (password pw), joins its room and then, at random intervals with
+// the configured mean rates, sends chat messages and invites other simulated users; an invited
+// user answers at once. Chat messages carry their send time, so every delivery gives an end-to-end
+// latency; only messages sent after the ramp are measured.
+//
+// Without -Dchat.load.host it starts a local ChatServer in its own JVM on an embedded store with
+// the load users, in nio mode, and stops it at the end; its output goes to load-server.log.
+// An external server needs the users file (-Dchat.load.usersFile is written if it does not exist)
+// as its -Dchat.store.usersFile, and login limits that let this many users in from one address.
+//
+// -Dchat.load.users (1000), -Dchat.load.roomSize (50, 0 puts everyone in the lobby),
+// -Dchat.load.messagesPerSecond (per user, 1), -Dchat.load.invitesPerSecond (per user, 0.01),
+// -Dchat.load.messageBytes (padding per message, 0), -Dchat.load.rampSeconds (10),
+// -Dchat.load.durationSeconds (30, after the ramp), -Dchat.load.reportSeconds (5),
+// -Dchat.load.eventLoops (cores), -Dchat.load.host, -Dchat.load.port (12345),
+// -Dchat.load.serverMode (nio), -Dchat.load.serverArgs (extra JVM options for the local server)
+// Usage: java chatPackage.LoadGenerator
+public class LoadGenerator {
+    private static final String STAMP = "load@"; // Followed by the sender's System.nanoTime()
+    private static final long HEARTBEAT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.heartbeat.intervalMs", 30_000L));
+    private static final int MAX_LINE_LENGTH = BinaryProtocol.MAX_FRAME_LENGTH;
+
+    private final int userCount = Integer.getInteger("chat.load.users", 1000);
+    private final int roomSize = Integer.getInteger("chat.load.roomSize", 50);
+    private final double messagesPerSecond = Double.parseDouble(System.getProperty("chat.load.messagesPerSecond", "1"));
+    private final double invitesPerSecond = Double.parseDouble(System.getProperty("chat.load.invitesPerSecond", "0.01"));
+    private final int messageBytes = Integer.getInteger("chat.load.messageBytes", 0);
+    private final long rampSeconds = Long.getLong("chat.load.rampSeconds", 10L);
+    private final long durationSeconds = Long.getLong("chat.load.durationSeconds", 30L);
+    private final long reportSeconds = Long.getLong("chat.load.reportSeconds", 5L);
+    private final boolean binary = "binary".equalsIgnoreCase(System.getProperty("chat.protocol", "text"));
+    private final String padding;
+
+    private volatile long measureFrom = Long.MAX_VALUE; // nanoTime after the ramp; earlier messages are not measured
+    private volatile boolean sending = true;
+    private volatile boolean recording = true; // Cleared before the report, so its numbers agree with each other
+    private final AtomicIntegerArray userIds; // Simulated user index -> server user_id, once logged in
+    private final AtomicIntegerArray roomMembers; // Room -> users that joined it
+
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+    private final LatencyHistogram inviteLatency = new LatencyHistogram();
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger loggedIn = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder loginFailures = new LongAdder();
+    private final LongAdder loginRetries = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder measuredSent = new LongAdder();
+    private final LongAdder expectedDeliveries = new LongAdder(); // For measured messages: room members when sent
+    private final LongAdder deliveries = new LongAdder();
+    private final LongAdder invitesSent = new LongAdder();
+    private final LongAdder invitesAnswered = new LongAdder();
+    private final LongAdder inviteFailures = new LongAdder();
+    private final LongAdder otherLines = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Set<String> errorSamples = ConcurrentHashMap.newKeySet();
+
+    private LoadGenerator() {
+        this.userIds = new AtomicIntegerArray(userCount);
+        this.roomMembers = new AtomicIntegerArray(Math.max(1, roomSize == 0 ? 1 : (userCount + roomSize - 1) / roomSize));
+        char[] fill = new char[messageBytes];
+        Arrays.fill(fill, 'x');
+        this.padding = messageBytes == 0 ? "" : " " + new String(fill);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator().run();
+    }
+
+    private void run() throws Exception {
+        String host = System.getProperty("chat.load.host");
+        int port = Integer.getInteger("chat.load.port", 12345);
+        Process server = null;
+        if (host == null) {
+            host = "localhost";
+            server = startServer(port);
+        } else {
+            String usersFile = System.getProperty("chat.load.usersFile");
+            if (usersFile != null && !new File(usersFile).exists()) {
+                writeUsers(new File(usersFile));
+            }
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+
+        EventLoop[] loops = new EventLoop[Integer.getInteger("chat.load.eventLoops", Runtime.getRuntime().availableProcessors())];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("load-loop-" + i);
+            loops[i].start();
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        Snapshot[] previous = {new Snapshot(start)};
+        reporter.scheduleAtFixedRate(() -> previous[0] = progress(start, previous[0]), reportSeconds, reportSeconds, TimeUnit.SECONDS);
+
+        // Connections open at an even pace over the ramp, so logins do not arrive as one burst
+        long rampNanos = TimeUnit.SECONDS.toNanos(rampSeconds);
+        for (int i = 0; i < userCount; i++) {
+            long due = start + rampNanos * i / userCount;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            SimulatedUser user = new SimulatedUser(i, loops[i % loops.length]);
+            user.loop.execute(() -> user.connect(address));
+        }
+        long settle = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.max(2, rampSeconds / 2));
+        while (loggedIn.get() + loginFailures.intValue() + connectFailures.intValue() < userCount && System.nanoTime() < settle) {
+            Thread.sleep(50); // Logins still in the server's queue when the ramp ends
+        }
+        measureFrom = System.nanoTime();
+        long measureStart = measureFrom;
+        System.out.println("Ramp done: " + loggedIn.get() + " of " + userCount + " users logged in; measuring for " + durationSeconds + " s");
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        sending = false;
+        double measuredSeconds = (System.nanoTime() - measureStart) / 1e9;
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (deliveryLatency.count() < expectedDeliveries.sum() && System.nanoTime() < drainUntil) {
+            Thread.sleep(50); // Deliveries still on their way
+        }
+        reporter.shutdownNow();
+        recording = false;
+        report(measuredSeconds);
+
+        if (server != null) {
+            server.destroy();
+        }
+        System.exit(loggedIn.get() == 0 || deliveries.sum() == 0 && measuredSent.sum() > 0 ? 1 : 0);
+    }
+
+    // The local server: its own JVM, an embedded store in a temporary directory, no login limits
+    private Process startServer(int port) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("chat-load");
+        File usersFile = directory.resolve("users.txt").toFile();
+        writeUsers(usersFile);
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+        String serverArgs = System.getProperty("chat.load.serverArgs", "").trim();
+        if (!serverArgs.isEmpty()) {
+            command.addAll(Arrays.asList(serverArgs.split("\\s+")));
+        }
+        command.addAll(Arrays.asList(
+                "-cp", System.getProperty("java.class.path"),
+                "-Dchat.server.port=" + port,
+                "-Dchat.server.mode=" + System.getProperty("chat.load.serverMode", "nio"),
+                "-Dchat.store=embedded",
+                "-Dchat.store.dir=" + directory.resolve("store"),
+                "-Dchat.store.usersFile=" + usersFile,
+                "-Dchat.metrics.port=0",
+                "-Dchat.login.ipBurst=" + (userCount * 2), // Every user logs in from this machine
+                "-Dchat.login.ipPerSecond=100000",
+                "serverPackage.ChatServer"));
+        Process server = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(new File("load-server.log"))
+                .start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::destroy));
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                break;
+            } catch (IOException e) {
+                if (!server.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IOException("Local server did not start on port " + port + "; see load-server.log");
+                }
+                Thread.sleep(100);
+            }
+        }
+        System.out.println("Started a local " + System.getProperty("chat.load.serverMode", "nio") + " server on port " + port + " with an embedded store in " + directory);
+        return server;
+    }
+
+    private void writeUsers(File file) throws IOException {
+        try (PrintWriter users = new PrintWriter(file, "UTF-8")) {
+            for (int i = 0; i < userCount; i++) {
+                users.println("load" + i + ":pw:Load" + i);
+            }
+        }
+    }
+
+    // Counter values at one moment, for the rates in the progress lines
+    private final class Snapshot {
+        final long at;
+        final long sent;
+        final long delivered;
+
+        Snapshot(long at) {
+            this.at = at;
+            this.sent = messagesSent.sum();
+            this.delivered = deliveries.sum();
+        }
+    }
+
+    private Snapshot progress(long start, Snapshot previous) {
+        Snapshot now = new Snapshot(System.nanoTime());
+        double seconds = (now.at - previous.at) / 1e9;
+        System.out.printf("%4.0fs  connected %d  logged in %d  active %d  sent %,.0f/s  delivered %,.0f/s  p99 %.1f ms%n",
+                (now.at - start) / 1e9, connected.get(), loggedIn.get(), active.get(),
+                (now.sent - previous.sent) / seconds, (now.delivered - previous.delivered) / seconds,
+                deliveryLatency.percentileMillis(0.99));
+        return now;
+    }
+
+    private void report(double seconds) {
+        long expected = expectedDeliveries.sum();
+        long delivered = deliveryLatency.count();
+        System.out.println();
+        System.out.println("protocol             : " + (binary ? "binary" : "text"));
+        System.out.println("users                : " + userCount + (roomSize > 0 ? " in rooms of " + roomSize : " in the lobby")
+                + ", " + loggedIn.get() + " logged in, " + connectFailures.sum() + " could not connect, "
+                + loginFailures.sum() + " refused, " + disconnects.sum() + " dropped");
+        System.out.println("login latency        : " + loginLatency.summary() + " (" + loginRetries.sum() + " retries after the server was busy)");
+        System.out.printf("messages             : %,d sent while measuring (%,.0f/s), %,d in total%n",
+                measuredSent.sum(), measuredSent.sum() / seconds, messagesSent.sum());
+        System.out.printf("deliveries           : %,d of %,d expected (%.2f%%), %,.0f/s%n",
+                delivered, expected, expected == 0 ? 100.0 : 100.0 * delivered / expected, delivered / seconds);
+        System.out.println("delivery latency     : " + deliveryLatency.summary());
+        System.out.println("invites              : " + invitesSent.sum() + " sent, " + invitesAnswered.sum() + " answered, "
+                + inviteFailures.sum() + " not delivered; round trip " + inviteLatency.summary());
+        System.out.println("other lines          : " + otherLines.sum() + " (notices, presence, contact lists)");
+        if (errors.sum() > 0) {
+            System.out.println("errors               : " + errors.sum() + ", e.g. " + errorSamples);
+        }
+    }
+
+    // One selector and its users. Everything about a user happens on its loop's thread, which also
+    // owns the encoders, so a user needs no locks and no encoder of its own.
+    private final class EventLoop extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Due> timers = new PriorityQueue<>(Comparator.comparingLong(due -> due.at));
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(256);
+        private final ClientEncoder encoder;
+        private final Random random = new Random();
+
+        EventLoop(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            this.selector = Selector.open();
+            this.encoder = binary ? new BinaryClientEncoder(encoded)
+                    : new TextClientEncoder(new PrintWriter(new OutputStreamWriter(encoded, StandardCharsets.UTF_8), true));
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        // A user rescheduled before its entry came up leaves that entry behind; it is skipped when polled
+        void schedule(SimulatedUser user) {
+            timers.add(new Due(user.nextActionAt, user));
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Due next = timers.peek();
+                    long waitMillis = next == null ? 0 : Math.max(1, (next.at - System.nanoTime()) / 1_000_000);
+                    selector.select(waitMillis);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        SimulatedUser user = (SimulatedUser) key.attachment();
+                        try {
+                            if (key.isValid() && key.isConnectable()) {
+                                user.finishConnect();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                user.read(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                user.flush();
+                            }
+                        } catch (RuntimeException e) {
+                            user.failed(e);
+                        }
+                    }
+                    long now = System.nanoTime();
+                    while ((next = timers.peek()) != null && next.at <= now) {
+                        timers.poll();
+                        if (next.at == next.user.nextActionAt) {
+                            try {
+                                next.user.act(now);
+                            } catch (RuntimeException e) {
+                                next.user.failed(e);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static final class Due {
+        final long at;
+        final SimulatedUser user;
+
+        Due(long at, SimulatedUser user) {
+            this.at = at;
+            this.user = user;
+        }
+    }
+
+    private final class SimulatedUser {
+        final int index;
+        final EventLoop loop;
+        final int roomId; // -1 in the lobby
+        private SocketChannel channel;
+        private SelectionKey key;
+        private boolean handshaking = false; // Binary: waiting for the server's two handshake bytes
+        private byte[] partial = new byte[256];
+        private int partialLength = 0;
+        private final ArrayDeque<ByteBuffer> unsent = new ArrayDeque<>();
+        private boolean inHistory = false;
+        private boolean closed = false;
+        private int userId = -1;
+        private String displayName;
+        private long loginStartedAt;
+        private long lastSentAt;
+        private long nextMessageAt = Long.MAX_VALUE;
+        private long nextInviteAt = Long.MAX_VALUE;
+        private long nextLoginAt = Long.MAX_VALUE; // Set while waiting to retry a refused login
+        long nextActionAt = Long.MAX_VALUE;
+        private final Map<Integer, Long> pendingInvites = new HashMap<>(); // Invited user_id -> nanoTime sent
+
+        SimulatedUser(int index, EventLoop loop) {
+            this.index = index;
+            this.loop = loop;
+            this.roomId = roomSize > 0 ? index / roomSize : -1;
+        }
+
+        void connect(InetSocketAddress address) {
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (channel.connect(address)) {
+                    key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+                    connected();
+                } else {
+                    key = channel.register(loop.selector, SelectionKey.OP_CONNECT, this);
+                }
+            } catch (IOException e) {
+                connectFailures.increment();
+                close(false);
+            }
+        }
+
+        void finishConnect() {
+            try {
+                channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                connected();
+            } catch (IOException e) {
+                connectFailures.increment();
+                close(false);
+            }
+        }
+
+        private void connected() throws IOException {
+            connected.incrementAndGet();
+            if (binary) {
+                BinaryProtocol.writeClientHandshake(loop.encoded);
+                handshaking = true;
+                send();
+            } else {
+                login();
+            }
+        }
+
+        private void login() {
+            loginStartedAt = System.nanoTime();
+            nextLoginAt = Long.MAX_VALUE;
+            send(e -> e.login("load" + index, "pw"));
+        }
+
+        private void send(ClientEncoder.Call call) {
+            try {
+                call.send(loop.encoder);
+            } catch (IOException e) {
+                close(true); // The encoders only write to memory; kept for the interface
+                return;
+            }
+            send();
+        }
+
+        // Writes what the loop's encoder produced; what the socket does not take waits for OP_WRITE
+        private void send() {
+            ByteBuffer bytes = ByteBuffer.wrap(loop.encoded.toByteArray());
+            loop.encoded.reset();
+            if (closed) {
+                return;
+            }
+            lastSentAt = System.nanoTime();
+            if (unsent.isEmpty()) {
+                try {
+                    channel.write(bytes);
+                } catch (IOException e) {
+                    close(true);
+                    return;
+                }
+                if (!bytes.hasRemaining()) {
+                    return;
+                }
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            unsent.add(bytes);
+        }
+
+        void flush() {
+            try {
+                ByteBuffer head;
+                while ((head = unsent.peek()) != null) {
+                    channel.write(head);
+                    if (head.hasRemaining()) {
+                        return;
+                    }
+                    unsent.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close(true);
+            }
+        }
+
+        void read(ByteBuffer readBuffer) {
+            int n;
+            try {
+                readBuffer.clear();
+                n = channel.read(readBuffer);
+            } catch (IOException e) {
+                n = -1;
+            }
+            if (n < 0) {
+                close(true);
+                return;
+            }
+            readBuffer.flip();
+            if (handshaking) {
+                if (!readHandshake(readBuffer)) {
+                    return;
+                }
+            }
+            if (partialLength + readBuffer.remaining() > partial.length) {
+                if (partialLength + readBuffer.remaining() > MAX_LINE_LENGTH + 8) {
+                    errorSample("Line longer than " + MAX_LINE_LENGTH + " bytes");
+                    close(true);
+                    return;
+                }
+                partial = Arrays.copyOf(partial, Math.max(partialLength + readBuffer.remaining(), partial.length * 2));
+            }
+            int incoming = readBuffer.remaining();
+            readBuffer.get(partial, partialLength, incoming);
+            partialLength += incoming;
+            int consumed = binary ? readFrames() : readLines(partialLength - incoming);
+            if (closed) {
+                return;
+            }
+            System.arraycopy(partial, consumed, partial, 0, partialLength - consumed);
+            partialLength -= consumed;
+        }
+
+        // Returns false until both bytes are in; a server that answers anything else only speaks text
+        private boolean readHandshake(ByteBuffer readBuffer) {
+            if (readBuffer.remaining() < 2) {
+                return false; // Two bytes practically always arrive together
+            }
+            int magic = readBuffer.get() & 0xFF;
+            int version = readBuffer.get();
+            if (magic != BinaryProtocol.MAGIC || version <= 0) {
+                errorSample("Server declined the binary protocol");
+                close(true);
+                return false;
+            }
+            handshaking = false;
+            login();
+            return true;
+        }
+
+        // '\n' never occurs inside a multi-byte UTF-8 sequence, so lines can be cut on raw bytes
+        private int readLines(int searchFrom) {
+            int start = 0;
+            for (int i = searchFrom; i < partialLength && !closed; i++) {
+                if (partial[i] == '\n') {
+                    int end = i > start && partial[i - 1] == '\r' ? i - 1 : i;
+                    handleLine(new String(partial, start, end - start, StandardCharsets.UTF_8));
+                    start = i + 1;
+                }
+            }
+            return start;
+        }
+
+        private int readFrames() {
+            int offset = 0;
+            int[] prefixSize = new int[1];
+            while (offset < partialLength && !closed) {
+                long length;
+                try {
+                    length = Frame.peekVarInt(partial, offset, partialLength - offset, prefixSize);
+                    if (length < 0 || offset + prefixSize[0] + length > partialLength) {
+                        break; // Rest of the frame has not arrived yet
+                    }
+                    Frame frame = Frame.copyOf(partial, offset + prefixSize[0], (int) length);
+                    if (frame.type() == BinaryProtocol.TEXT) {
+                        handleLine(frame.readString());
+                    }
+                } catch (IOException e) {
+                    errorSample(e.getMessage());
+                    close(true);
+                    return offset;
+                }
+                offset += prefixSize[0] + (int) length;
+            }
+            return offset;
+        }
+
+        private void handleLine(String line) {
+            if (inHistory) {
+                inHistory = !ServerLines.isHistoryEnd(line); // Stored messages, not deliveries
+                return;
+            }
+            if (ServerLines.isHistoryStart(line)) {
+                inHistory = true;
+                return;
+            }
+            switch (ServerLines.leadingWord(line)) {
+                case "MSG":
+                    delivered(line);
+                    break;
+                case "USER_ID":
+                    userId = Integer.parseInt(line.substring("USER_ID:".length()));
+                    userIds.set(index, userId);
+                    break;
+                case "DISPLAY_NAME":
+                    displayName = line.substring("DISPLAY_NAME:".length());
+                    break;
+                case "SESSION": // Last line of a successful login
+                    loginLatency.recordSince(loginStartedAt);
+                    loggedIn.incrementAndGet();
+                    if (roomId >= 0) {
+                        send(e -> e.joinRoom(roomId));
+                    } else {
+                        startSending();
+                    }
+                    break;
+                case "JOINED_ROOM":
+                    roomMembers.incrementAndGet(roomId);
+                    startSending();
+                    break;
+                case "ADD_USER_INVITE": { // ADD_USER_INVITE:<invitedId>:<senderId>
+                    String[] parts = line.split(":");
+                    int inviterId = Integer.parseInt(parts[2]);
+                    send(e -> e.inviteResponse(true, inviterId, userId));
+                    break;
+                }
+                case "INVITE_ACCEPTED":
+                case "INVITE_REJECTED": { // INVITE_ACCEPTED:<inviterId>:<responderId>
+                    Long sentAt = pendingInvites.remove(Integer.parseInt(line.split(":")[2]));
+                    if (sentAt != null) {
+                        inviteLatency.recordSince(sentAt);
+                        invitesAnswered.increment();
+                    }
+                    break;
+                }
+                case "ERROR":
+                    error(line);
+                    break;
+                default:
+                    if (userId >= 0 && line.startsWith(userId + ":")) {
+                        inviteFailures.increment(); // <userId>:USER_NOT_FOUND or <userId>:RESP_USER_INVITE:...
+                    } else {
+                        otherLines.increment();
+                    }
+            }
+        }
+
+        // MSG:<id>:<displayName>: load@<nanoTime>[ padding]
+        private void delivered(String line) {
+            int stamp = line.indexOf(STAMP);
+            if (stamp < 0) {
+                otherLines.increment();
+                return;
+            }
+            int end = line.indexOf(' ', stamp);
+            long sentAt = Long.parseLong(line.substring(stamp + STAMP.length(), end < 0 ? line.length() : end));
+            if (!recording) {
+                return;
+            }
+            deliveries.increment();
+            if (sentAt >= measureFrom) {
+                deliveryLatency.recordSince(sentAt);
+            }
+        }
+
+        private void error(String line) {
+            if (line.startsWith("ERROR: Server is busy") || line.startsWith("ERROR: Too many login attempts")) {
+                loginRetries.increment(); // The server shed the login; try again shortly, as a person would
+                nextLoginAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500 + loop.random.nextInt(1500));
+                reschedule();
+            } else if (line.startsWith("ERROR: Invalid username or password")) {
+                loginFailures.increment();
+                errorSample(line);
+                close(false);
+            } else {
+                errors.increment();
+                errorSample(line);
+            }
+        }
+
+        // A line the user could not make sense of, or a bug in the generator: this user stops, the rest carry on
+        void failed(RuntimeException e) {
+            errors.increment();
+            errorSample(e.toString());
+            close(false);
+        }
+
+        private void errorSample(String line) {
+            if (errorSamples.size() < 5) {
+                errorSamples.add(line);
+            }
+        }
+
+        private void startSending() {
+            active.incrementAndGet();
+            long now = System.nanoTime();
+            nextMessageAt = now + interval(messagesPerSecond);
+            nextInviteAt = now + interval(invitesPerSecond);
+            reschedule();
+        }
+
+        // Exponentially distributed, so each user's actions form a Poisson process with the given rate
+        private long interval(double perSecond) {
+            if (perSecond <= 0) {
+                return Long.MAX_VALUE / 2;
+            }
+            return (long) (-Math.log(1 - loop.random.nextDouble()) / perSecond * 1e9);
+        }
+
+        private void reschedule() {
+            long heartbeat = active() ? lastSentAt + HEARTBEAT_NANOS : Long.MAX_VALUE;
+            long next = Math.min(Math.min(nextMessageAt, nextInviteAt), Math.min(nextLoginAt, heartbeat));
+            if (next != nextActionAt) {
+                nextActionAt = next;
+                if (!closed && next != Long.MAX_VALUE) {
+                    loop.schedule(this);
+                }
+            }
+        }
+
+        private boolean active() {
+            return nextMessageAt != Long.MAX_VALUE || nextInviteAt != Long.MAX_VALUE;
+        }
+
+        void act(long now) {
+            if (closed) {
+                return;
+            }
+            nextActionAt = Long.MAX_VALUE; // Its entry is used up; reschedule adds the next one
+            if (nextLoginAt <= now) {
+                login();
+            }
+            if (nextMessageAt <= now) {
+                nextMessageAt = now + interval(messagesPerSecond);
+                if (sending) {
+                    sendMessage(now);
+                }
+            }
+            if (nextInviteAt <= now) {
+                nextInviteAt = now + interval(invitesPerSecond);
+                if (sending) {
+                    sendInvite(now);
+                }
+            }
+            if (active() && now - lastSentAt >= HEARTBEAT_NANOS) {
+                send(e -> e.ping(now)); // Keeps the server's idle reaper away when rates are low
+            }
+            reschedule();
+        }
+
+        private void sendMessage(long now) {
+            messagesSent.increment();
+            if (now >= measureFrom) {
+                measuredSent.increment();
+                expectedDeliveries.add(roomId >= 0 ? roomMembers.get(roomId) : active.get());
+            }
+            send(e -> e.chat(displayName, roomId, STAMP + now + padding));
+        }
+
+        // To another simulated user that is logged in, found by trying a few at random
+        private void sendInvite(long now) {
+            for (int attempt = 0; attempt < 4; attempt++) {
+                int other = loop.random.nextInt(userCount);
+                int otherId = userIds.get(other);
+                if (other != index && otherId > 0 && !pendingInvites.containsKey(otherId)) {
+                    pendingInvites.put(otherId, now);
+                    invitesSent.increment();
+                    send(e -> e.invite(otherId, userId));
+                    return;
+                }
+            }
+        }
+
+        private void close(boolean dropped) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (dropped) {
+                disconnects.increment();
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            if (active()) {
+                active.decrementAndGet();
+                if (roomId >= 0) {
+                    roomMembers.decrementAndGet(roomId);
+                }
+            }
+            nextMessageAt = nextInviteAt = Long.MAX_VALUE;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            partial = null;
+            unsent.clear();
+        }
+    }
+
+    // Latencies in microseconds, kept to within 1/64 of their value: below 128 us exactly, above in
+    // 64 steps per power of two. Recording is one atomic increment, so every loop can share one.
+    private static final class LatencyHistogram {
+        private static final int SUB_BUCKETS = 64;
+        private final AtomicLongArray counts = new AtomicLongArray(2 * SUB_BUCKETS + 58 * SUB_BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        void recordSince(long startNanos) {
+            long micros = Math.max(0, (System.nanoTime() - startNanos) / 1000);
+            counts.incrementAndGet(bucket(micros));
+            total.increment();
+            maxMicros.accumulateAndGet(micros, Math::max);
+        }
+
+        private static int bucket(long micros) {
+            if (micros < 2 * SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(micros) - 6; // Keeps the top 7 bits
+            return shift * SUB_BUCKETS + (int) (micros >>> shift);
+        }
+
+        // Highest value that falls in the bucket
+        private static long upperBound(int bucket) {
+            if (bucket < 2 * SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long top = bucket - shift * SUB_BUCKETS;
+            return ((top + 1) << shift) - 1;
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        double percentileMillis(double quantile) {
+            long n = total.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * n));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), maxMicros.get()) / 1000.0;
+                }
+            }
+            return maxMicros.get() / 1000.0;
+        }
+
+        String summary() {
+            if (total.sum() == 0) {
+                return "no samples";
+            }
+            return String.format("p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f ms (%,d samples)",
+                    percentileMillis(0.50), percentileMillis(0.90), percentileMillis(0.99), percentileMillis(0.999),
+                    maxMicros.get() / 1000.0, total.sum());
+        }
+    }
+}
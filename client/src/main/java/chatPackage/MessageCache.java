@@ -0,0 +1,285 @@
+package chatPackage;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Append-only local store of chat messages, so a client can show history before the server
+// answers and then ask it only for what arrived since. Records go into segment files named after
+// their first message id and are read through read-only memory maps; a new segment is started
+// once the current one passes segmentBytes, and the oldest are deleted beyond maxSegments.
+// The index file lists each segment's first and last id and its length, so opening the cache
+// reads one small file instead of every record; only a tail written after the index was last
+// saved (a crash) is scanned, and a torn last record is cut off.
+//
+// Record: <int length><long messageId><int roomId><UTF-8 line><int length>. length counts the
+// id, room and line; the copy at the end lets the newest records be read backwards.
+// Messages must arrive in id order; an id at or below the last stored one is ignored.
+public class MessageCache implements Closeable {
+    public static final int LOBBY = -1;
+    private static final int INDEX_VERSION = 1;
+    private static final int RECORD_OVERHEAD = 4 + 8 + 4 + 4;
+
+    private final File directory;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final List<Segment> segments = new ArrayList<>(); // Oldest first
+    private FileChannel appender; // Open on the newest segment
+    private long lastMessageId = 0;
+
+    public static final class Entry {
+        public final long messageId;
+        public final int roomId;
+        public final String line;
+
+        Entry(long messageId, int roomId, String line) {
+            this.messageId = messageId;
+            this.roomId = roomId;
+            this.line = line;
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        final long firstMessageId;
+        long lastMessageId;
+        long length; // Bytes of complete records
+        MappedByteBuffer map; // Covers [0, map.capacity()); remapped when the segment has grown
+
+        Segment(File file, long firstMessageId, long lastMessageId, long length) {
+            this.file = file;
+            this.firstMessageId = firstMessageId;
+            this.lastMessageId = lastMessageId;
+            this.length = length;
+        }
+    }
+
+    public MessageCache(File directory, long segmentBytes, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create message cache directory " + directory);
+        }
+        open();
+    }
+
+    // One cache per server and user under -Dchat.cache.dir (default ~/.chat-cache)
+    public static MessageCache forUser(String serverAddress, int port, String username) throws IOException {
+        File root = new File(System.getProperty("chat.cache.dir", System.getProperty("user.home") + File.separator + ".chat-cache"));
+        File directory = new File(new File(root, safeName(serverAddress + "_" + port)), safeName(username));
+        return new MessageCache(directory,
+                Long.getLong("chat.cache.segmentBytes", 8L << 20),
+                Integer.getInteger("chat.cache.maxSegments", 16));
+    }
+
+    private static String safeName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    public synchronized long lastMessageId() {
+        return lastMessageId;
+    }
+
+    // Returns false if the message is already stored
+    public synchronized boolean append(long messageId, int roomId, String line) throws IOException {
+        if (messageId <= lastMessageId) {
+            return false;
+        }
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.length >= segmentBytes) {
+            segment = startSegment(messageId);
+        }
+        byte[] text = line.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 4 + text.length;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + text.length);
+        record.putInt(length).putLong(messageId).putInt(roomId).put(text).putInt(length).flip();
+        while (record.hasRemaining()) {
+            appender.write(record);
+        }
+        segment.length += record.limit();
+        segment.lastMessageId = messageId;
+        lastMessageId = messageId;
+        return true;
+    }
+
+    // The newest `limit` messages for the room, oldest first
+    public List<Entry> latest(int roomId, int limit) throws IOException {
+        return before(roomId, Long.MAX_VALUE, limit);
+    }
+
+    // Up to `limit` messages for the room older than beforeMessageId, oldest first
+    public synchronized List<Entry> before(int roomId, long beforeMessageId, int limit) throws IOException {
+        List<Entry> newestFirst = new ArrayList<>(Math.min(limit, 256));
+        for (int i = segments.size() - 1; i >= 0 && newestFirst.size() < limit; i--) {
+            Segment segment = segments.get(i);
+            if (segment.firstMessageId >= beforeMessageId || segment.length == 0) {
+                continue;
+            }
+            ByteBuffer map = mapped(segment);
+            int position = (int) segment.length;
+            while (position > 0 && newestFirst.size() < limit) {
+                int length = map.getInt(position - 4);
+                int start = position - RECORD_OVERHEAD - (length - 12);
+                long messageId = map.getLong(start + 4);
+                if (messageId < beforeMessageId && map.getInt(start + 12) == roomId) {
+                    byte[] text = new byte[length - 12];
+                    map.get(start + 16, text); // Absolute read, so the shared buffer's position never moves
+                    newestFirst.add(new Entry(messageId, roomId, new String(text, StandardCharsets.UTF_8)));
+                }
+                position = start;
+            }
+        }
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    // Drops everything, for when the stored messages can no longer be joined up with the server's
+    public synchronized void clear() throws IOException {
+        closeAppender();
+        for (Segment segment : segments) {
+            delete(segment);
+        }
+        segments.clear();
+        lastMessageId = 0;
+        writeIndex();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeAppender();
+        writeIndex();
+        for (Segment segment : segments) {
+            segment.map = null; // Unmapped once collected
+        }
+    }
+
+    private void open() throws IOException {
+        File index = indexFile();
+        if (index.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+                if (in.readInt() == INDEX_VERSION) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        long first = in.readLong();
+                        long last = in.readLong();
+                        long length = in.readLong();
+                        File file = segmentFile(first);
+                        if (file.isFile()) {
+                            // A file shorter than indexed was damaged; rescan it from the start
+                            segments.add(new Segment(file, first, last, length <= file.length() ? length : 0));
+                        }
+                    }
+                }
+            } catch (EOFException e) {
+                segments.clear(); // Torn index: rebuild it from the segment files below
+            }
+        }
+        if (segments.isEmpty()) {
+            File[] files = directory.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".log"));
+            if (files != null) {
+                for (File file : files) {
+                    long first = Long.parseLong(file.getName().substring(8, file.getName().length() - 4));
+                    segments.add(new Segment(file, first, first, 0)); // Every record gets scanned
+                }
+            }
+            segments.sort(Comparator.comparingLong(segment -> segment.firstMessageId));
+        }
+        for (Segment segment : segments) {
+            if (segment.file.length() > segment.length) {
+                recover(segment);
+            }
+        }
+        if (!segments.isEmpty()) {
+            Segment newest = segments.get(segments.size() - 1);
+            lastMessageId = newest.lastMessageId;
+            appender = FileChannel.open(newest.file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+    // Reads records past the indexed length, keeping the complete ones and cutting off the rest.
+    // Read into the heap rather than mapped: Windows cannot truncate a file while it is mapped.
+    private void recover(Segment segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer tail = ByteBuffer.allocate((int) (channel.size() - segment.length));
+            while (tail.hasRemaining() && channel.read(tail, segment.length + tail.position()) >= 0) {
+            }
+            int size = tail.position();
+            int position = 0;
+            while (position + 4 <= size) {
+                int length = tail.getInt(position);
+                int end = position + RECORD_OVERHEAD + length - 12;
+                if (length < 12 || end > size || tail.getInt(end - 4) != length) {
+                    break;
+                }
+                segment.lastMessageId = tail.getLong(position + 4);
+                position = end;
+            }
+            segment.length += position;
+            if (position < size) {
+                channel.truncate(segment.length);
+            }
+        }
+    }
+
+    private Segment startSegment(long firstMessageId) throws IOException {
+        closeAppender();
+        Segment segment = new Segment(segmentFile(firstMessageId), firstMessageId, firstMessageId, 0);
+        appender = FileChannel.open(segment.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        segments.add(segment);
+        while (segments.size() > maxSegments) {
+            delete(segments.remove(0));
+        }
+        writeIndex(); // Lengths of the finished segments are final now
+        return segment;
+    }
+
+    private static void delete(Segment segment) {
+        segment.map = null;
+        if (!segment.file.delete() && segment.file.exists()) {
+            segment.file.deleteOnExit(); // Still mapped on Windows until the buffer is collected
+        }
+    }
+
+    private ByteBuffer mapped(Segment segment) throws IOException {
+        if (segment.map == null || segment.map.capacity() < segment.length) {
+            try (FileChannel channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ)) {
+                segment.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.length);
+            }
+        }
+        return segment.map;
+    }
+
+    private void writeIndex() throws IOException {
+        File temporary = new File(directory, "index.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(segments.size());
+            for (Segment segment : segments) {
+                out.writeLong(segment.firstMessageId);
+                out.writeLong(segment.lastMessageId);
+                out.writeLong(segment.length);
+            }
+        }
+        Files.move(temporary.toPath(), indexFile().toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void closeAppender() throws IOException {
+        if (appender != null) {
+            appender.close();
+            appender = null;
+        }
+    }
+
+    private File indexFile() {
+        return new File(directory, "index");
+    }
+
+    private File segmentFile(long firstMessageId) {
+        return new File(directory, String.format("segment-%020d.log", firstMessageId));
+    }
+}
@@ -0,0 +1,40 @@
+package chatPackage;
+
+// Reading the lines a server sends, shared by the chat window and the headless LoadGenerator
+public final class ServerLines {
+    private ServerLines() {
+    }
+
+    // The word before the first ':', which is how lines are told apart; the whole line if there is none
+    public static String leadingWord(String line) {
+        int colon = line.indexOf(':');
+        return colon < 0 ? line : line.substring(0, colon);
+    }
+
+    // The id in MSG:<messageId>:..., or 0 for a line without one
+    public static long messageIdOf(String line) {
+        if (!line.startsWith("MSG:")) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(line.substring(4, line.indexOf(':', 4)));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return 0; // Someone's display name starting with "MSG", not an id
+        }
+    }
+
+    // MSG:<messageId>:<displayName>: <content> -> <displayName>: <content>; other lines as they are
+    public static String withoutMessageId(String line) {
+        return messageIdOf(line) == 0 ? line : line.substring(line.indexOf(':', 4) + 1);
+    }
+
+    // MESSAGES: (login), HISTORY_PAGE: (load older) or HISTORY_DELTA: (resume) opens a block of
+    // stored messages, one per line, that HISTORY_END:<oldestMessageId> closes
+    public static boolean isHistoryStart(String line) {
+        return line.startsWith("MESSAGES:") || line.startsWith("HISTORY_PAGE:") || line.startsWith("HISTORY_DELTA:");
+    }
+
+    public static boolean isHistoryEnd(String line) {
+        return line.startsWith("HISTORY_END:");
+    }
+}
@@ -0,0 +1,22 @@
+package chatPackage;
+
+import java.awt.Color;
+
+// One row of the chat transcript. messageId is the server's id for stored chat messages
+// and 0 for everything else (notices, errors, lines from servers without ids).
+public final class TranscriptLine {
+    public final String text;
+    public final Color color;
+    public final long messageId;
+
+    public TranscriptLine(String text, Color color, long messageId) {
+        this.text = text;
+        this.color = color;
+        this.messageId = messageId;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,71 @@
+package chatPackage;
+
+import javax.swing.AbstractListModel;
+import java.util.*;
+
+// List model behind the chat transcript. Only the rows in view are rendered, and the model
+// itself holds at most a caller-given number of lines: appends drop the oldest rows and
+// prepends (older history pages) stop at the limit, so memory stays flat however long the
+// session runs. Older rows that were dropped can be paged back in from the server.
+// EDT only, like any Swing model.
+public class TranscriptModel extends AbstractListModel<TranscriptLine> {
+    private static final long serialVersionUID = 1L;
+    private final ArrayList<TranscriptLine> lines = new ArrayList<>();
+    private long newestDroppedMessageId = 0;
+
+    @Override
+    public int getSize() {
+        return lines.size();
+    }
+
+    @Override
+    public TranscriptLine getElementAt(int index) {
+        return lines.get(index);
+    }
+
+    // Adds the lines at the bottom, then drops rows from the top until at most keep remain.
+    // Returns the number of rows dropped.
+    public int append(List<TranscriptLine> added, int keep) {
+        if (!added.isEmpty()) {
+            int first = lines.size();
+            lines.addAll(added);
+            fireIntervalAdded(this, first, lines.size() - 1);
+        }
+        int excess = lines.size() - keep;
+        if (excess <= 0) {
+            return 0;
+        }
+        List<TranscriptLine> dropped = lines.subList(0, excess);
+        noteDropped(dropped);
+        dropped.clear();
+        fireIntervalRemoved(this, 0, excess - 1);
+        return excess;
+    }
+
+    // Adds the lines at the top, keeping the newest of them if all would exceed limit.
+    // Returns the number of rows added.
+    public int prepend(List<TranscriptLine> added, int limit) {
+        int room = Math.max(0, Math.min(added.size(), limit - lines.size()));
+        noteDropped(added.subList(0, added.size() - room));
+        if (room == 0) {
+            return 0;
+        }
+        lines.addAll(0, added.subList(added.size() - room, added.size()));
+        fireIntervalAdded(this, 0, room - 1);
+        return room;
+    }
+
+    // Newest message id dropped or refused at the top since the last call, or 0. Everything
+    // held is newer, so paging older history has to restart just above it.
+    public long takeDroppedMessageId() {
+        long dropped = newestDroppedMessageId;
+        newestDroppedMessageId = 0;
+        return dropped;
+    }
+
+    private void noteDropped(List<TranscriptLine> dropped) {
+        for (TranscriptLine line : dropped) {
+            newestDroppedMessageId = Math.max(newestDroppedMessageId, line.messageId);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package protocolPackage;
+
+import java.io.*;
+
+// Encodes client messages as binary frames; synchronized because the UI and the network thread
+// both send, and they share one encoder buffer
+public final class BinaryClientEncoder implements ClientEncoder {
+    private final OutputStream out;
+    private final FrameEncoder encoder = new FrameEncoder();
+
+    public BinaryClientEncoder(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public synchronized void login(String username, String password) throws IOException {
+        encoder.begin(BinaryProtocol.LOGIN).writeString(username).writeString(password);
+        send();
+    }
+
+    @Override
+    public synchronized void loginSince(String username, String password, long lastSeenMessageId) throws IOException {
+        encoder.begin(BinaryProtocol.LOGIN_SINCE).writeVarLong(lastSeenMessageId).writeString(username).writeString(password);
+        send();
+    }
+
+    @Override
+    public synchronized void chat(String displayName, int roomId, String content) throws IOException {
+        encoder.begin(BinaryProtocol.CHAT).writeRoomId(roomId).writeString(displayName).writeString(content);
+        send();
+    }
+
+    @Override
+    public synchronized void invite(int invitedUserId, int senderId) throws IOException {
+        encoder.begin(BinaryProtocol.INVITE).writeVarInt(invitedUserId).writeVarInt(senderId);
+        send();
+    }
+
+    @Override
+    public synchronized void inviteResponse(boolean accepted, int inviterId, int responderId) throws IOException {
+        encoder.begin(accepted ? BinaryProtocol.INVITE_ACCEPTED : BinaryProtocol.INVITE_REJECTED)
+                .writeVarInt(inviterId).writeVarInt(responderId);
+        send();
+    }
+
+    @Override
+    public synchronized void joinRoom(int roomId) throws IOException {
+        encoder.begin(BinaryProtocol.JOIN_ROOM).writeVarInt(roomId);
+        send();
+    }
+
+    @Override
+    public synchronized void leaveRoom(int roomId) throws IOException {
+        encoder.begin(BinaryProtocol.LEAVE_ROOM).writeVarInt(roomId);
+        send();
+    }
+
+    @Override
+    public synchronized void historyBefore(long messageId) throws IOException {
+        encoder.begin(BinaryProtocol.HISTORY_BEFORE).writeVarLong(messageId);
+        send();
+    }
+
+    @Override
+    public synchronized void resume(String sessionToken, long lastSeenMessageId) throws IOException {
+        encoder.begin(BinaryProtocol.RESUME).writeVarLong(lastSeenMessageId).writeString(sessionToken);
+        send();
+    }
+
+    @Override
+    public synchronized void ping(long sequence) throws IOException {
+        encoder.begin(BinaryProtocol.PING).writeVarLong(sequence);
+        send();
+    }
+
+    private void send() throws IOException {
+        encoder.writeTo(out);
+        out.flush();
+    }
+}
@@ -0,0 +1,54 @@
+package protocolPackage;
+
+import java.io.*;
+
+// Length-prefixed binary protocol shared by ChatServer and ChatClient.
+//
+// Handshake: a binary client opens with MAGIC followed by the highest version it speaks; the
+// server answers MAGIC and the version it picked. MAGIC can never start a text frame (those begin
+// with an ASCII command such as "LOGIN:"), so one peeked byte tells the server which protocol the
+// connection uses and text clients keep working unchanged.
+//
+// Frame: <varint payload length><type byte><fields>. Ids are unsigned varints, strings are a
+// varint byte length followed by UTF-8, room ids are sent as roomId + 1 so the lobby (-1) is 0.
+public final class BinaryProtocol {
+    public static final int MAGIC = 0xC7;
+    public static final int VERSION = 1;
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    // Client to server
+    public static final byte LOGIN = 1;            // username, password
+    public static final byte CHAT = 2;             // roomId + 1, displayName, content
+    public static final byte INVITE = 3;           // invitedUserId, senderId
+    public static final byte INVITE_ACCEPTED = 4;  // inviterId, responderId
+    public static final byte INVITE_REJECTED = 5;  // inviterId, responderId
+    public static final byte JOIN_ROOM = 6;        // roomId
+    public static final byte LEAVE_ROOM = 7;       // roomId
+    public static final byte HISTORY_BEFORE = 8;   // messageId (varlong)
+    public static final byte PING = 9;             // sequence (varlong), answered with a PONG:<sequence> line
+    public static final byte RESUME = 10;          // lastSeenMessageId (varlong), session token
+    public static final byte LOGIN_SINCE = 11;     // lastSeenMessageId (varlong), username, password; decodes to a Login
+
+    // Server to client: one line of the text protocol, so both kinds of client see the same content
+    public static final byte TEXT = 32;            // line
+
+    private BinaryProtocol() {
+    }
+
+    public static void writeClientHandshake(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.flush();
+    }
+
+    // Returns the version the server agreed to, or -1 if it did not answer with a handshake
+    public static int readServerHandshake(InputStream in) throws IOException {
+        int magic = in.read();
+        int version = in.read();
+        return magic == MAGIC && version > 0 ? version : -1;
+    }
+
+    public static int negotiateVersion(int clientVersion) {
+        return Math.min(clientVersion, VERSION);
+    }
+}
@@ -0,0 +1,111 @@
+package protocolPackage;
+
+// A decoded client request. Text lines and binary frames decode to the same commands, and the
+// type is the BinaryProtocol frame type, so one dispatch table serves both protocols.
+public abstract class ClientCommand {
+    public final byte type;
+
+    private ClientCommand(byte type) {
+        this.type = type;
+    }
+
+    public static final class Login extends ClientCommand {
+        public final String username;
+        public final String password;
+        // Newest message the client already has stored; the server then sends only newer ones
+        public final long lastSeenMessageId;
+        // The client reads MSG:<id> lines, HISTORY_END and SESSION; false only for a plain text
+        // LOGIN, which is what the original clients send
+        public final boolean messageIds;
+
+        public Login(String username, String password) {
+            this(username, password, 0, false);
+        }
+
+        public Login(String username, String password, long lastSeenMessageId, boolean messageIds) {
+            super(BinaryProtocol.LOGIN);
+            this.username = username;
+            this.password = password;
+            this.lastSeenMessageId = lastSeenMessageId;
+            this.messageIds = messageIds;
+        }
+    }
+
+    public static final class Chat extends ClientCommand {
+        public final String displayName;
+        public final int roomId; // -1 is the lobby
+        public final String content;
+
+        public Chat(String displayName, int roomId, String content) {
+            super(BinaryProtocol.CHAT);
+            this.displayName = displayName;
+            this.roomId = roomId;
+            this.content = content;
+        }
+    }
+
+    public static final class Invite extends ClientCommand {
+        public final int invitedUserId;
+        public final int senderId;
+
+        public Invite(int invitedUserId, int senderId) {
+            super(BinaryProtocol.INVITE);
+            this.invitedUserId = invitedUserId;
+            this.senderId = senderId;
+        }
+    }
+
+    public static final class InviteResponse extends ClientCommand {
+        public final boolean accepted;
+        public final int inviterId;
+        public final int responderId;
+
+        public InviteResponse(boolean accepted, int inviterId, int responderId) {
+            super(accepted ? BinaryProtocol.INVITE_ACCEPTED : BinaryProtocol.INVITE_REJECTED);
+            this.accepted = accepted;
+            this.inviterId = inviterId;
+            this.responderId = responderId;
+        }
+    }
+
+    public static final class RoomMembership extends ClientCommand {
+        public final boolean join;
+        public final int roomId;
+
+        public RoomMembership(boolean join, int roomId) {
+            super(join ? BinaryProtocol.JOIN_ROOM : BinaryProtocol.LEAVE_ROOM);
+            this.join = join;
+            this.roomId = roomId;
+        }
+    }
+
+    // Login with the session token from a previous connection instead of the password
+    public static final class Resume extends ClientCommand {
+        public final String token;
+        public final long lastSeenMessageId; // 0 when the client has seen nothing yet
+
+        public Resume(String token, long lastSeenMessageId) {
+            super(BinaryProtocol.RESUME);
+            this.token = token;
+            this.lastSeenMessageId = lastSeenMessageId;
+        }
+    }
+
+    public static final class Ping extends ClientCommand {
+        public final long sequence;
+
+        public Ping(long sequence) {
+            super(BinaryProtocol.PING);
+            this.sequence = sequence;
+        }
+    }
+
+    public static final class HistoryBefore extends ClientCommand {
+        public final long messageId;
+
+        public HistoryBefore(long messageId) {
+            super(BinaryProtocol.HISTORY_BEFORE);
+            this.messageId = messageId;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package protocolPackage;
+
+import java.io.*;
+
+// Everything a client sends, independent of the wire format negotiated for the connection
+public interface ClientEncoder {
+    void login(String username, String password) throws IOException;
+
+    // Login that asks only for messages newer than lastSeenMessageId instead of the latest page
+    void loginSince(String username, String password, long lastSeenMessageId) throws IOException;
+
+    void resume(String sessionToken, long lastSeenMessageId) throws IOException;
+
+    void chat(String displayName, int roomId, String content) throws IOException; // roomId -1 is the lobby
+
+    void invite(int invitedUserId, int senderId) throws IOException;
+
+    void inviteResponse(boolean accepted, int inviterId, int responderId) throws IOException;
+
+    void joinRoom(int roomId) throws IOException;
+
+    void leaveRoom(int roomId) throws IOException;
+
+    void historyBefore(long messageId) throws IOException;
+
+    void ping(long sequence) throws IOException;
+
+    // One message, for callers that handle the IOException in a single place
+    interface Call {
+        void send(ClientEncoder encoder) throws IOException;
+    }
+}
@@ -0,0 +1,129 @@
+package protocolPackage;
+
+import java.io.IOException;
+
+// Turns a text line or a binary frame into a ClientCommand. A text line is classified once, by the
+// command word before its first ':', so command names inside chat content are never mistaken
+// for commands. Both methods return null for an unknown command. A line with missing or malformed
+// fields throws IllegalArgumentException and is answered with an error; a frame whose fields do
+// not fit it throws IOException, and the connection is closed.
+public final class CommandDecoder {
+    private CommandDecoder() {
+    }
+
+    public static ClientCommand decode(String line) {
+        int colon = line.indexOf(':');
+        if (colon < 0) {
+            return null;
+        }
+        switch (line.substring(0, colon)) {
+            case "LOGIN": {
+                int end = field(line, colon); // The password is the rest of the line and may contain ':'
+                return new ClientCommand.Login(line.substring(colon + 1, end), rest(line, end));
+            }
+            case "LOGIN_SINCE": {
+                int idEnd = field(line, colon); // LOGIN_SINCE:<lastSeenMessageId>:<username>:<password>
+                int end = field(line, idEnd);
+                return new ClientCommand.Login(line.substring(idEnd + 1, end), rest(line, end),
+                        Long.parseLong(line.substring(colon + 1, idEnd)), true);
+            }
+            case "MESSAGE": {
+                // MESSAGE:<displayName>:<chatRoomId>:<messageContent>, content keeps any ':'
+                int nameEnd = field(line, colon);
+                int roomEnd = field(line, nameEnd);
+                String room = line.substring(nameEnd + 1, roomEnd);
+                int roomId = room.equals("null") ? -1 : Integer.parseInt(room);
+                return new ClientCommand.Chat(line.substring(colon + 1, nameEnd), roomId, rest(line, roomEnd));
+            }
+            case "ADD_USER_INVITE": {
+                int end = field(line, colon);
+                return new ClientCommand.Invite(parseInt(line, colon, end), parseInt(line, end, lastField(line, end)));
+            }
+            case "INVITE_ACCEPTED":
+            case "INVITE_REJECTED": {
+                int end = field(line, colon);
+                return new ClientCommand.InviteResponse(line.charAt(7) == 'A',
+                        parseInt(line, colon, end), parseInt(line, end, lastField(line, end)));
+            }
+            case "JOIN_ROOM":
+                return new ClientCommand.RoomMembership(true, parseInt(line, colon, line.length()));
+            case "LEAVE_ROOM":
+                return new ClientCommand.RoomMembership(false, parseInt(line, colon, line.length()));
+            case "HISTORY_BEFORE":
+                return new ClientCommand.HistoryBefore(Long.parseLong(line.substring(colon + 1).trim()));
+            case "RESUME": {
+                int end = field(line, colon); // RESUME:<lastSeenMessageId>:<token>
+                return new ClientCommand.Resume(rest(line, end), Long.parseLong(line.substring(colon + 1, end)));
+            }
+            case "PING":
+                return new ClientCommand.Ping(Long.parseLong(line.substring(colon + 1).trim()));
+            default:
+                return null;
+        }
+    }
+
+    public static ClientCommand decode(Frame frame) throws IOException {
+        switch (frame.type()) {
+            case BinaryProtocol.LOGIN: {
+                String username = frame.readString();
+                return new ClientCommand.Login(username, frame.readString(), 0, true); // Binary clients all read ids
+            }
+            case BinaryProtocol.LOGIN_SINCE: {
+                long lastSeenMessageId = frame.readVarLong();
+                String username = frame.readString();
+                return new ClientCommand.Login(username, frame.readString(), lastSeenMessageId, true);
+            }
+            case BinaryProtocol.CHAT: {
+                int roomId = frame.readRoomId();
+                String displayName = frame.readString();
+                return new ClientCommand.Chat(displayName, roomId, frame.readString());
+            }
+            case BinaryProtocol.INVITE: {
+                int invitedUserId = frame.readVarInt();
+                return new ClientCommand.Invite(invitedUserId, frame.readVarInt());
+            }
+            case BinaryProtocol.INVITE_ACCEPTED:
+            case BinaryProtocol.INVITE_REJECTED: {
+                int inviterId = frame.readVarInt();
+                return new ClientCommand.InviteResponse(frame.type() == BinaryProtocol.INVITE_ACCEPTED, inviterId, frame.readVarInt());
+            }
+            case BinaryProtocol.JOIN_ROOM:
+                return new ClientCommand.RoomMembership(true, frame.readVarInt());
+            case BinaryProtocol.LEAVE_ROOM:
+                return new ClientCommand.RoomMembership(false, frame.readVarInt());
+            case BinaryProtocol.HISTORY_BEFORE:
+                return new ClientCommand.HistoryBefore(frame.readVarLong());
+            case BinaryProtocol.RESUME: {
+                long lastSeenMessageId = frame.readVarLong();
+                return new ClientCommand.Resume(frame.readString(), lastSeenMessageId);
+            }
+            case BinaryProtocol.PING:
+                return new ClientCommand.Ping(frame.readVarLong());
+            default:
+                return null;
+        }
+    }
+
+    // End of the field starting after `start`; throws if the line has no further ':'
+    private static int field(String line, int start) {
+        int end = line.indexOf(':', start + 1);
+        if (end < 0) {
+            throw new IllegalArgumentException("Missing field");
+        }
+        return end;
+    }
+
+    // Old clients end some commands with a trailing ':' or extra fields; ignore them like split() did
+    private static int lastField(String line, int start) {
+        int end = line.indexOf(':', start + 1);
+        return end < 0 ? line.length() : end;
+    }
+
+    private static String rest(String line, int start) {
+        return line.substring(start + 1);
+    }
+
+    private static int parseInt(String line, int start, int end) {
+        return Integer.parseInt(line, start + 1, end, 10);
+    }
+}
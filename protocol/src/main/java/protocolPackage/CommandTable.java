@@ -0,0 +1,28 @@
+package protocolPackage;
+
+// Dispatch table from command type to handler, indexed by the type byte. Built once and shared;
+// the target is whatever holds per-connection state.
+public final class CommandTable<T> {
+    public interface Handler<T, C extends ClientCommand> {
+        void handle(T target, C command);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private final Handler[] handlers = new Handler[256];
+
+    public <C extends ClientCommand> CommandTable<T> on(byte type, Class<C> commandClass, Handler<T, C> handler) {
+        handlers[type & 0xFF] = handler;
+        return this;
+    }
+
+    // False when nothing is registered for the command's type
+    @SuppressWarnings("unchecked")
+    public boolean dispatch(T target, ClientCommand command) {
+        Handler<T, ClientCommand> handler = handlers[command.type & 0xFF];
+        if (handler == null) {
+            return false;
+        }
+        handler.handle(target, command);
+        return true;
+    }
+}
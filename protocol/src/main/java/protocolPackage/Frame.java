@@ -0,0 +1,122 @@
+package protocolPackage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// A decoded frame: its type plus a cursor over the payload bytes. The reader reuses one Frame
+// and its buffer for every frame, so decoding allocates nothing but the strings it returns.
+// A field that does not fit its frame throws IOException: the peer is broken or hostile, so the
+// connection is closed rather than answered.
+public final class Frame {
+    private byte type;
+    private byte[] payload;
+    private int position;
+    private int limit;
+
+    public Frame() {
+        this(new byte[256]);
+    }
+
+    Frame(byte[] payload) {
+        this.payload = payload;
+    }
+
+    // Copies type and fields out of a buffer, for frames that must outlive the buffer they came from
+    public static Frame copyOf(byte[] source, int offset, int length) {
+        Frame frame = new Frame(new byte[Math.max(0, length - 1)]);
+        frame.type = source[offset];
+        System.arraycopy(source, offset + 1, frame.payload, 0, length - 1);
+        frame.position = 0;
+        frame.limit = length - 1;
+        return frame;
+    }
+
+    byte[] buffer(int capacity) {
+        if (payload.length < capacity) {
+            payload = new byte[Math.max(capacity, payload.length * 2)];
+        }
+        return payload;
+    }
+
+    void reset(byte type, int length) {
+        this.type = type;
+        this.position = 0;
+        this.limit = length;
+    }
+
+    public byte type() {
+        return type;
+    }
+
+    // An int is written as its unsigned 32 bits: at most 5 bytes, the last holding 4 bits
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position >= limit) {
+                throw new IOException("Varint runs past the end of frame type " + type);
+            }
+            byte b = payload[position++];
+            if (shift == 28 && (b & 0xF0) != 0) {
+                throw new IOException("Varint overflows an int in frame type " + type);
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint is too long in frame type " + type); // Unreachable: the 5th byte has no continuation bit
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            if (position >= limit || shift > 63) {
+                throw new IOException("Malformed varint in frame type " + type);
+            }
+            byte b = payload[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    public int readRoomId() throws IOException {
+        return readVarInt() - 1;
+    }
+
+    public String readString() throws IOException {
+        int length = readVarInt();
+        if (length < 0 || length > limit - position) { // Subtracted, so a huge length cannot overflow the check
+            throw new IOException("String of " + (length & 0xFFFFFFFFL) + " bytes runs past the end of frame type " + type);
+        }
+        String value = new String(payload, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    // Decodes a frame length from raw bytes without consuming them: the value, or -1 if more bytes
+    // are needed. A length is at most 5 bytes and below 2^31.
+    public static long peekVarInt(byte[] bytes, int offset, int length, int[] sizeOut) throws IOException {
+        long value = 0;
+        int shift = 0;
+        for (int i = 0; i < length && i < 5; i++) {
+            byte b = bytes[offset + i];
+            if (i == 4 && (b & 0xF8) != 0) {
+                throw new IOException("Frame length varint overflows an int");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                sizeOut[0] = i + 1;
+                return value;
+            }
+            shift += 7;
+        }
+        if (length >= 5) {
+            throw new IOException("Frame length varint is too long");
+        }
+        return -1;
+    }
+}
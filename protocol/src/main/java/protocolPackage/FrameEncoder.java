@@ -0,0 +1,130 @@
+package protocolPackage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+// Builds frames into one reusable, growable buffer. Usage: begin(type), write fields, then
+// writeTo(out) or toByteBuffer(). Strings are UTF-8 encoded straight into the buffer.
+// Not thread safe; use one encoder per writer.
+public final class FrameEncoder {
+    private static final int HEADER_RESERVE = 5; // Room for the longest varint length prefix
+
+    private byte[] buffer = new byte[256];
+    private int position;
+    private int frameStart;
+
+    public FrameEncoder begin(byte type) {
+        position = HEADER_RESERVE;
+        ensure(1);
+        buffer[position++] = type;
+        return this;
+    }
+
+    public FrameEncoder writeVarInt(int value) {
+        return writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    public FrameEncoder writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    public FrameEncoder writeRoomId(int roomId) {
+        return writeVarInt(roomId + 1);
+    }
+
+    public FrameEncoder writeString(CharSequence value) {
+        return writeString(value, 0, value.length());
+    }
+
+    public FrameEncoder writeString(CharSequence value, int start, int end) {
+        int utf8Length = utf8Length(value, start, end);
+        writeVarInt(utf8Length);
+        ensure(utf8Length);
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[position++] = '?'; // Unpaired surrogate, same replacement String.getBytes uses
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    private static int utf8Length(CharSequence value, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // Writes the length prefix in front of the payload; returns the frame's offset in the buffer
+    private int finish() {
+        int payloadLength = position - HEADER_RESERVE;
+        int prefixLength = 1;
+        for (int v = payloadLength; (v & ~0x7F) != 0; v >>>= 7) {
+            prefixLength++;
+        }
+        frameStart = HEADER_RESERVE - prefixLength;
+        int p = frameStart;
+        int v = payloadLength;
+        while ((v & ~0x7F) != 0) {
+            buffer[p++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[p] = (byte) v;
+        return frameStart;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        int start = finish();
+        out.write(buffer, start, position - start);
+    }
+
+    public ByteBuffer toByteBuffer() {
+        int start = finish();
+        ByteBuffer copy = ByteBuffer.allocate(position - start);
+        copy.put(buffer, start, position - start).flip();
+        return copy;
+    }
+
+    private void ensure(int extra) {
+        if (position + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, position + extra)];
+            System.arraycopy(buffer, 0, grown, 0, position);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package protocolPackage;
+
+import java.io.*;
+
+// Reads frames from a blocking stream into a single reused Frame
+public final class FrameReader {
+    private final InputStream in;
+    private final int maxFrameLength;
+    private final Frame frame = new Frame();
+
+    public FrameReader(InputStream in, int maxFrameLength) {
+        this.in = in;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    // The next frame, valid until the following call, or null at end of stream
+    public Frame next() throws IOException {
+        int length = readLength();
+        if (length == -1) {
+            return null;
+        }
+        if (length == 0 || length > maxFrameLength) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        int type = in.read();
+        if (type < 0) {
+            throw new EOFException("Stream ended inside a frame");
+        }
+        byte[] payload = frame.buffer(length - 1);
+        int read = 0;
+        while (read < length - 1) {
+            int n = in.read(payload, read, length - 1 - read);
+            if (n < 0) {
+                throw new EOFException("Stream ended inside a frame");
+            }
+            read += n;
+        }
+        frame.reset((byte) type, length - 1);
+        return frame;
+    }
+
+    // At most 5 bytes; the 5th may only hold the 3 bits left below 2^31, so a length is never negative
+    private int readLength() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return -1; // Clean end of stream between frames
+                }
+                throw new EOFException("Stream ended inside a frame length");
+            }
+            if (shift == 28 && (b & 0xF8) != 0) {
+                throw new IOException("Frame length varint overflows an int");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Frame length varint is too long");
+    }
+}
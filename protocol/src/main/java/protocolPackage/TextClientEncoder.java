@@ -0,0 +1,64 @@
+package protocolPackage;
+
+import java.io.*;
+
+// The original colon-delimited line protocol
+public final class TextClientEncoder implements ClientEncoder {
+    private final PrintWriter out;
+
+    public TextClientEncoder(PrintWriter out) {
+        this.out = out;
+    }
+
+    @Override
+    // LOGIN_SINCE with nothing seen yet: the same login as LOGIN, but it tells the server this
+    // client reads MSG:<id> lines and HISTORY_END, which a plain LOGIN keeps from original clients
+    public void login(String username, String password) {
+        loginSince(username, password, 0);
+    }
+
+    @Override
+    public void loginSince(String username, String password, long lastSeenMessageId) {
+        out.println("LOGIN_SINCE:" + lastSeenMessageId + ":" + username + ":" + password);
+    }
+
+    @Override
+    public void chat(String displayName, int roomId, String content) {
+        out.println("MESSAGE:" + displayName + ":" + (roomId == -1 ? "null" : String.valueOf(roomId)) + ":" + content);
+    }
+
+    @Override
+    public void invite(int invitedUserId, int senderId) {
+        out.println("ADD_USER_INVITE:" + invitedUserId + ":" + senderId); //AddUser:<Receiver>:<Sender>
+    }
+
+    @Override
+    public void inviteResponse(boolean accepted, int inviterId, int responderId) {
+        out.println((accepted ? "INVITE_ACCEPTED:" : "INVITE_REJECTED:") + inviterId + ":" + responderId);
+    }
+
+    @Override
+    public void joinRoom(int roomId) {
+        out.println("JOIN_ROOM:" + roomId);
+    }
+
+    @Override
+    public void leaveRoom(int roomId) {
+        out.println("LEAVE_ROOM:" + roomId);
+    }
+
+    @Override
+    public void historyBefore(long messageId) {
+        out.println("HISTORY_BEFORE:" + messageId);
+    }
+
+    @Override
+    public void resume(String sessionToken, long lastSeenMessageId) {
+        out.println("RESUME:" + lastSeenMessageId + ":" + sessionToken);
+    }
+
+    @Override
+    public void ping(long sequence) {
+        out.println("PING:" + sequence);
+    }
+}
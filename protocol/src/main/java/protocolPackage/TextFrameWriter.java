@@ -0,0 +1,43 @@
+package protocolPackage;
+
+import java.io.*;
+
+// Writer that turns each line written to it into a TEXT frame. It lets code that produces
+// text protocol lines (a PrintWriter, the server's outbound queues) serve binary clients as is.
+public final class TextFrameWriter extends Writer {
+    private final OutputStream out;
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final StringBuilder line = new StringBuilder();
+
+    public TextFrameWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            char c = cbuf[i];
+            if (c == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    end--;
+                }
+                encoder.begin(BinaryProtocol.TEXT).writeString(line, 0, end).writeTo(out);
+                line.setLength(0);
+            } else {
+                line.append(c);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+}
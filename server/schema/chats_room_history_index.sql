@@ -0,0 +1,4 @@
+-- History pages and resume deltas are read per room, newest or oldest message id first.
+-- This index lets each room's read walk its own messages instead of the whole chats table.
+-- Run once against chat_db.
+CREATE INDEX idx_chats_room_message ON chats (chat_room_id, message_id);
@@ -0,0 +1,33 @@
+package serverPackage;
+
+import java.util.*;
+
+// How chat messages are written on the wire, shared by live delivery and the history blocks
+// (MESSAGES:, HISTORY_PAGE:, HISTORY_DELTA:) that carry many of them in one queue entry
+public final class ChatLines {
+    private ChatLines() {
+    }
+
+    // MSG:<messageId>:<displayName>: <content>, or the plain line while ids are not available
+    public static String line(long messageId, String displayName, String messageContent) {
+        String line = plainLine(displayName, messageContent);
+        return messageId == -1 ? line : "MSG:" + messageId + ":" + line;
+    }
+
+    // <displayName>: <content>, the only form an original text client understands
+    public static String plainLine(String displayName, String messageContent) {
+        return displayName + ": " + messageContent;
+    }
+
+    // One line per message, each after a newline, so the block stays a single queue entry
+    public static void append(StringBuilder block, List<ChatMessage> messages) {
+        append(block, messages, true);
+    }
+
+    public static void append(StringBuilder block, List<ChatMessage> messages, boolean messageIds) {
+        for (ChatMessage message : messages) {
+            block.append('\n').append(messageIds ? line(message.messageId, message.displayName, message.content)
+                    : plainLine(message.displayName, message.content));
+        }
+    }
+}
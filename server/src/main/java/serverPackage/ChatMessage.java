@@ -0,0 +1,20 @@
+package serverPackage;
+
+// A chat line on its way to the chats table
+public class ChatMessage {
+    public final long messageId; // Assigned by MessageSequence, or -1 to let the table assign it
+    public final int userId; // -1 when only the display name is known
+    public final String displayName;
+    public final String content;
+    public final int chatRoomId; // -1 for no room, stored as NULL
+    public final long timestamp;
+
+    public ChatMessage(long messageId, int userId, String displayName, String content, int chatRoomId, long timestamp) {
+        this.messageId = messageId;
+        this.userId = userId;
+        this.displayName = displayName;
+        this.content = content;
+        this.chatRoomId = chatRoomId;
+        this.timestamp = timestamp;
+    }
+}
@@ -0,0 +1,280 @@
+package serverPackage;
+
+import java.sql.*;
+import java.util.*;
+
+// The MySQL ChatStore: all SQL used by the server, running on pooled connections with cached prepared statements.
+// Methods throw SQLException and leave it to the caller to decide how to degrade; while the
+// database is down they throw at once, because every borrow goes through the health breaker.
+public class ChatRepository implements ChatStore {
+    private static final String LOGIN_QUERY = "SELECT user_id, displayname, password FROM users WHERE username = ?";
+    private static final String USER_ID_BY_DISPLAY_NAME_QUERY = "SELECT user_id FROM users WHERE displayname = ?";
+    private static final String IS_ACTIVE_QUERY = "SELECT is_active FROM users WHERE user_id = ?";
+    private static final String SET_ACTIVE_UPDATE = "UPDATE users SET is_active = 1 WHERE user_id = ?";
+    private static final String ACTIVE_STATUS_UPDATE = "UPDATE users SET is_active = ?, last_login = ? WHERE user_id = ?";
+    private static final String INSERT_CONTACT = "INSERT INTO contacts (user_id, contact_user_id, added_at) VALUES (?, ?, NOW())";
+    private static final String CONTACTS_QUERY = "SELECT contact_user_id FROM contacts WHERE user_id = ?";
+    private static final String CONTACT_IDS_QUERY = "SELECT contact_user_id AS id FROM contacts WHERE user_id = ? "
+            + "UNION SELECT user_id AS id FROM contacts WHERE contact_user_id = ?";
+    private static final String INSERT_MESSAGE = "INSERT INTO chats (user_id, message_content, timestamp, chat_room_id) VALUES (?, ?, ?, ?)";
+    // A row whose id is already there was written by an earlier, partly replayed batch; it is skipped
+    private static final String INSERT_MESSAGE_WITH_ID = "INSERT INTO chats (user_id, message_content, timestamp, chat_room_id, message_id) VALUES (?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE message_id = message_id";
+    private static final String MAX_MESSAGE_ID_QUERY = "SELECT COALESCE(MAX(message_id), 0) AS max_id FROM chats";
+    // History is read per room, one keyset branch each, so every branch walks the
+    // (chat_room_id, message_id) index (server/schema/chats_room_history_index.sql) and its cost does
+    // not grow with the table. The lobby is stored as NULL. %s is the room predicate of a branch.
+    private static final String HISTORY_PAGE_BRANCH = "SELECT * FROM (SELECT c.message_id, u.displayname, c.message_content "
+            + "FROM chats c JOIN users u ON c.user_id = u.user_id WHERE %s AND c.message_id < ? ORDER BY c.message_id DESC LIMIT ?) room";
+    // The newest `limit` of all branches, returned oldest first
+    private static final String HISTORY_PAGE_QUERY = "SELECT message_id, displayname, message_content FROM ("
+            + "SELECT * FROM (%s) rooms ORDER BY message_id DESC LIMIT ?) page ORDER BY message_id";
+    // Messages after the given id, oldest first: what a resuming client missed
+    private static final String MESSAGES_AFTER_BRANCH = "SELECT * FROM (SELECT c.message_id, u.displayname, c.message_content "
+            + "FROM chats c JOIN users u ON c.user_id = u.user_id WHERE %s AND c.message_id > ? ORDER BY c.message_id LIMIT ?) room";
+    private static final String MESSAGES_AFTER_QUERY = "SELECT message_id, displayname, message_content FROM (%s) rooms "
+            + "ORDER BY message_id LIMIT ?";
+
+    private final ConnectionPool pool;
+    private final DatabaseHealth health;
+
+    public ChatRepository(ConnectionPool pool, DatabaseHealth health) {
+        this.pool = pool;
+        this.health = health;
+    }
+
+    // Defaults match the original hardcoded settings; override with -Dchat.db.* properties
+    public static ChatRepository fromSystemProperties() {
+        // rewriteBatchedStatements lets Connector/J send a message batch as one multi-row INSERT
+        String url = System.getProperty("chat.db.url", "jdbc:mysql://localhost:3306/chat_db?rewriteBatchedStatements=true");
+        String user = System.getProperty("chat.db.user", "root");
+        String password = System.getProperty("chat.db.password", "");
+        int poolSize = Integer.getInteger("chat.db.poolSize", 10);
+        long borrowTimeout = Long.getLong("chat.db.borrowTimeoutMs", 5000L);
+        ConnectionPool pool = new ConnectionPool(url, user, password, poolSize, borrowTimeout);
+        DatabaseHealth health = new DatabaseHealth(pool,
+                Integer.getInteger("chat.db.failureThreshold", 3),
+                Long.getLong("chat.db.healthIntervalMs", 5000L));
+        return new ChatRepository(pool, health);
+    }
+
+    public ConnectionPool pool() {
+        return pool;
+    }
+
+    @Override
+    public DatabaseHealth health() {
+        return health;
+    }
+
+    // Single round trip for login: id, display name and stored password together, or null
+    @Override
+    public UserRecord findLogin(String username) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = health.borrow()) {
+            PreparedStatement stmt = conn.prepare(LOGIN_QUERY);
+            stmt.setString(1, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new UserRecord(rs.getInt("user_id"), username, rs.getString("displayname"), rs.getString("password"));
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int findUserIdByDisplayName(String displayName) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = health.borrow()) {
+            PreparedStatement stmt = conn.prepare(USER_ID_BY_DISPLAY_NAME_QUERY);
+            stmt.setString(1, displayName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("user_id");
+                }
+            }
+        }
+        return -1;
+    }
+
+    // is_active for the user, or null when the user does not exist
+    @Override
+    public Integer findActiveStatus(String userId) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = health.borrow()) {
+            PreparedStatement stmt = conn.prepare(IS_ACTIVE_QUERY);
+            stmt.setString(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("is_active");
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void saveContact(String senderId, String receiverId) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = health.borrow()) {
+            PreparedStatement stmt = conn.prepare(INSERT_CONTACT);
+            stmt.setString(1, senderId);
+            stmt.setString(2, receiverId);
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public List<String> findContacts(String userId) throws SQLException {
+        List<String> contacts = new ArrayList<>();
+        try (ConnectionPool.PooledConnection conn = health.borrow()) {
+            PreparedStatement stmt = conn.prepare(CONTACTS_QUERY);
+            stmt.setString(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    contacts.add(rs.getString("contact_user_id"));
+                }
+            }
+        }
+        return contacts;
+    }
+
+    // Contacts in either direction: an accepted invitation links both users
+    @Override
+    public Set<Integer> findContactIds(int userId) throws SQLException {
+        Set<Integer> contacts = new HashSet<>();
+        try (ConnectionPool.PooledConnection conn = health.borrow()) {
+            PreparedStatement stmt = conn.prepare(CONTACT_IDS_QUERY);
+            stmt.setInt(1, userId);
+            stmt.setInt(2, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    contacts.add(rs.getInt("id"));
+                }
+            }
+        }
+        return contacts;
+    }
+
+    // Latest presence per user in one transaction: logins set is_active, logouts also stamp last_login
+    @Override
+    public void saveActiveStatuses(List<PresenceChange> changes) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = health.borrow()) {
+            Connection connection = conn.connection();
+            PreparedStatement activate = conn.prepare(SET_ACTIVE_UPDATE);
+            PreparedStatement deactivate = conn.prepare(ACTIVE_STATUS_UPDATE);
+            connection.setAutoCommit(false);
+            try {
+                for (PresenceChange change : changes) {
+                    if (change.active) {
+                        activate.setInt(1, change.userId);
+                        activate.addBatch();
+                    } else {
+                        deactivate.setBoolean(1, false);
+                        deactivate.setTimestamp(2, new Timestamp(change.timestamp));
+                        deactivate.setInt(3, change.userId);
+                        deactivate.addBatch();
+                    }
+                }
+                activate.executeBatch();
+                deactivate.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                activate.clearBatch();
+                deactivate.clearBatch();
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    // One JDBC batch in one transaction; messages must already carry a resolved user_id
+    @Override
+    public void saveMessages(List<ChatMessage> messages) throws SQLException {
+        try (ConnectionPool.PooledConnection conn = health.borrow()) {
+            Connection connection = conn.connection();
+            PreparedStatement withoutId = conn.prepare(INSERT_MESSAGE);
+            PreparedStatement withId = conn.prepare(INSERT_MESSAGE_WITH_ID);
+            connection.setAutoCommit(false);
+            try {
+                for (ChatMessage message : messages) {
+                    PreparedStatement stmt = message.messageId == -1 ? withoutId : withId;
+                    stmt.setInt(1, message.userId);
+                    stmt.setString(2, message.content);
+                    stmt.setTimestamp(3, new Timestamp(message.timestamp)); // Time the server accepted it, not the flush time
+                    if (message.chatRoomId == -1) {
+                        stmt.setNull(4, Types.INTEGER); // Set chat_room_id as NULL
+                    } else {
+                        stmt.setInt(4, message.chatRoomId);
+                    }
+                    if (stmt == withId) {
+                        stmt.setLong(5, message.messageId);
+                    }
+                    stmt.addBatch();
+                }
+                withoutId.executeBatch();
+                withId.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                withoutId.clearBatch();
+                withId.clearBatch();
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    @Override
+    public long findMaxMessageId() throws SQLException {
+        try (ConnectionPool.PooledConnection conn = health.borrow()) {
+            try (ResultSet rs = conn.prepare(MAX_MESSAGE_ID_QUERY).executeQuery()) {
+                rs.next();
+                return rs.getLong("max_id");
+            }
+        }
+    }
+
+    @Override
+    public int streamMessagesAfter(long afterMessageId, int limit, Collection<Integer> chatRoomIds, HistoryRowHandler handler) throws SQLException {
+        return streamRooms(MESSAGES_AFTER_QUERY, MESSAGES_AFTER_BRANCH, afterMessageId, limit, chatRoomIds, handler);
+    }
+
+    // Hands each row of the page to the handler as it is read; returns the number of rows
+    @Override
+    public int streamHistoryPage(long beforeMessageId, int limit, Collection<Integer> chatRoomIds, HistoryRowHandler handler) throws SQLException {
+        return streamRooms(HISTORY_PAGE_QUERY, HISTORY_PAGE_BRANCH, beforeMessageId, limit, chatRoomIds, handler);
+    }
+
+    private int streamRooms(String query, String branch, long messageId, int limit, Collection<Integer> chatRoomIds,
+                            HistoryRowHandler handler) throws SQLException {
+        if (chatRoomIds.isEmpty()) {
+            return 0;
+        }
+        List<Integer> rooms = new ArrayList<>(new TreeSet<>(chatRoomIds)); // Same order, same statement text, for the cache
+        StringJoiner branches = new StringJoiner(" UNION ALL ");
+        for (int chatRoomId : rooms) {
+            branches.add(String.format(branch, chatRoomId == -1 ? "c.chat_room_id IS NULL" : "c.chat_room_id = ?"));
+        }
+        int rows = 0;
+        try (ConnectionPool.PooledConnection conn = health.borrow()) {
+            PreparedStatement stmt = conn.prepare(String.format(query, branches));
+            int parameter = 1;
+            for (int chatRoomId : rooms) {
+                if (chatRoomId != -1) {
+                    stmt.setInt(parameter++, chatRoomId);
+                }
+                stmt.setLong(parameter++, messageId);
+                stmt.setInt(parameter++, limit);
+            }
+            stmt.setInt(parameter, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    handler.row(rs.getLong("message_id"), rs.getString("displayname"), rs.getString("message_content"));
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,807 @@
+package serverPackage;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import protocolPackage.*;
+
+public class ChatServer {
+    private static final int PORT = Integer.getInteger("chat.server.port", 12345);
+    // Concurrent set instead of synchronized blocks: broadcasts iterate it without holding a
+    // monitor, which would otherwise pin a virtual thread to its carrier for every socket write
+    private static final Set<OutboundQueue> clientQueues = ConcurrentHashMap.newKeySet();
+    private static final int HISTORY_PAGE_SIZE = Integer.getInteger("chat.history.pageSize", 50);
+    // A resuming client that missed more than this gets the latest page instead of the whole gap
+    private static final int RESUME_DELTA_LIMIT = Integer.getInteger("chat.history.resumeLimit", 500);
+    private static final int OUTBOUND_CAPACITY = Integer.getInteger("chat.outbound.capacity", 1024);
+    private static final OutboundQueue.OverflowPolicy OUTBOUND_POLICY =
+            OutboundQueue.OverflowPolicy.valueOf(System.getProperty("chat.outbound.policy", "DROP_OLDEST"));
+    // Members of each numbered chat room; room -1 ("null" on the wire) is the lobby everyone sees
+    static final RoomRegistry rooms = new RoomRegistry();
+    // Drains the outbound queues; a thread is only held while a client's socket is slow to accept bytes
+    private static ExecutorService outboundWriters = Executors.newCachedThreadPool();
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // Scraped at 127.0.0.1:<chat.metrics.port>/metrics and readable over JMX; recording is lock-free
+    static final Metrics metrics = new Metrics();
+    private static final Metrics.Counter logins = metrics.counter("chat_logins", "Sessions started by LOGIN, LOGIN_SINCE or RESUME");
+    private static final Metrics.Counter loginFailures = metrics.counter("chat_login_failures", "Logins refused for bad credentials");
+    private static final Metrics.Histogram loginLatency = metrics.histogram("chat_login_seconds",
+            "Credential check and session setup on a login worker");
+    private static final Metrics.Counter messagesIn = metrics.counter("chat_messages_in", "Chat messages accepted from clients");
+    private static final Metrics.Counter linesOut = metrics.counter("chat_lines_out", "Lines queued to client connections");
+    private static final Metrics.Histogram fanOut = metrics.histogram("chat_fanout_seconds",
+            "Time to queue one line for every recipient on this node");
+    private static final Metrics.Counter invitesSent = metrics.counter("chat_invites_sent", "Invitations delivered to an online user");
+
+    // Shared by every connection: one bounded connection pool instead of a MySQL handshake per query
+    static final ChatStore repository = new TimedChatStore(ChatStore.fromSystemProperties(), metrics);
+
+    // username <-> user_id <-> display name for recently seen users, so chat lines rarely need a lookup
+    static final UserDirectory users = UserDirectory.fromSystemProperties(repository);
+
+    // Online users and their connections; is_active / last_login are written from here in batches
+    static final PresenceRegistry presence = PresenceRegistry.fromSystemProperties(repository);
+
+    // Other ChatServer nodes; a lone node gets a bus that goes nowhere
+    static final ClusterBus cluster = ClusterBus.fromSystemProperties();
+
+    // With a shared database the node that accepted a message writes it. Nodes that each have
+    // their own store (embedded) set -Dchat.cluster.persistRemote=true to write every message.
+    private static final boolean PERSIST_REMOTE = Boolean.getBoolean("chat.cluster.persistRemote");
+
+    // Ids for chat lines as they are accepted, so clients can resume from the last one they saw
+    static final MessageSequence messageIds = new MessageSequence(repository, cluster.nodeCount(), cluster.nodeId());
+
+    // Chat lines are persisted in the background so they never wait on MySQL before being broadcast
+    static final MessageWriteBehind messageWriter = MessageWriteBehind.fromSystemProperties(repository, users, messageIds);
+
+    // Recent messages per room; replay and resume read here and only go to SQL for older pages
+    static final RecentMessages recentMessages = RecentMessages.fromSystemProperties(messageIds);
+
+    // Issued at login and accepted by RESUME instead of a password
+    static final SessionTokens sessions = SessionTokens.fromSystemProperties();
+
+    // Credential checks run here, rate limited, rather than on the connection threads
+    static final LoginGate loginGate = LoginGate.fromSystemProperties();
+
+    // Closes connections that have sent nothing, not even a PING, for chat.heartbeat.idleTimeoutMs
+    static final IdleReaper idleReaper = IdleReaper.fromSystemProperties();
+
+    private static final String DATABASE_OFFLINE = "ERROR: Database is currently offline. Please try again later.";
+
+    public static void main(String[] args) {
+        String mode = System.getProperty("chat.server.mode", "thread"); // thread, virtual or nio
+        serve(mode, PORT);
+    }
+
+    static void serve(String mode, int port) {
+        System.out.println("Chat Server started in " + mode + " mode...");
+        repository.health().addListener(ChatServer::onDatabaseStateChange);
+        repository.health().start(); // One probe for the whole server, not one per connection
+        messageIds.seed();
+        messageWriter.start();
+        loginGate.start(scheduler);
+        presence.start(scheduler);
+        idleReaper.start(scheduler);
+        startSlowConsumerReport();
+        startUserDirectoryReport();
+        startRecentMessagesReport();
+        try {
+            cluster.start(new ClusterDelivery());
+        } catch (IOException e) {
+            e.printStackTrace(); // Without its cluster port the node would split the chat in two
+            return;
+        }
+        startClusterReport();
+        registerGauges();
+        metrics.start(scheduler);
+
+        if (mode.equals("nio")) {
+            int eventLoops = Integer.getInteger("chat.server.eventLoops", Runtime.getRuntime().availableProcessors());
+            try {
+                new NioChatServer(port, eventLoops).run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        ThreadFactory connectionThreads = mode.equals("virtual") ? virtualThreadFactory() : Thread::new;
+        if (mode.equals("virtual")) {
+            outboundWriters = Executors.newCachedThreadPool(connectionThreads);
+        }
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            while (true) {
+                connectionThreads.newThread(new ClientHandler(serverSocket.accept())).start(); // Handle new client connections
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Thread.ofVirtual() only exists on JDK 21+, so it is looked up reflectively to keep the
+    // server building on older JDKs; those fall back to platform threads.
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "client-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need JDK 21 or later, using platform threads instead.");
+            return Thread::new;
+        }
+    }
+
+    static OutboundQueue newOutboundQueue(PrintWriter out, Runnable disconnect, BooleanSupplier sinkReady) {
+        return new OutboundQueue(out, outboundWriters, OUTBOUND_CAPACITY, OUTBOUND_POLICY, disconnect, sinkReady, linesOut);
+    }
+
+    // Read when scraped, never on the paths that change them
+    private static void registerGauges() {
+        metrics.gauge("chat_connections", "Open client connections", clientQueues::size);
+        metrics.gauge("chat_online_users", "Users with a session on this node", presence::onlineCount);
+        metrics.gauge("chat_remote_online_users", "Users other nodes report online", presence::remoteOnlineCount);
+        metrics.gauge("chat_outbound_queued_lines", "Lines waiting in client outbound queues", () -> {
+            long depth = 0;
+            for (OutboundQueue queue : clientQueues) {
+                depth += queue.depth();
+            }
+            return depth;
+        });
+        metrics.gauge("chat_write_behind_queue_depth", "Messages waiting to be written", messageWriter::queueDepth);
+        metrics.gauge("chat_write_behind_spilled", "Messages spilled to disk while the database was down", messageWriter::spilledMessages);
+        metrics.gauge("chat_write_behind_dropped", "Messages that could not be written", messageWriter::droppedMessages);
+        metrics.gauge("chat_login_queue_depth", "Logins waiting for a login worker", loginGate::queued);
+        metrics.gauge("chat_presence_pending", "Presence changes waiting to be written", presence::pendingChanges);
+        metrics.gauge("chat_recent_messages", "Messages held in the per-room buffers", recentMessages::bufferedMessages);
+        metrics.gauge("chat_database_available", "1 while the store's breaker is closed", () -> repository.health().isAvailable() ? 1 : 0);
+    }
+
+    static List<OutboundQueue> outboundQueues() {
+        return new ArrayList<>(clientQueues);
+    }
+
+    // Periodically names the clients whose queues are backing up or dropping lines
+    private static void startSlowConsumerReport() {
+        long period = Long.getLong("chat.outbound.reportSeconds", 30L);
+        scheduler.scheduleAtFixedRate(() -> {
+            List<OutboundQueue> offenders = new ArrayList<>();
+            for (OutboundQueue queue : clientQueues) {
+                if (queue.droppedLines() > 0 || queue.depth() >= queue.capacity() / 2) {
+                    offenders.add(queue);
+                }
+            }
+            if (offenders.isEmpty()) {
+                return;
+            }
+            offenders.sort(Comparator.comparingLong(OutboundQueue::droppedLines).thenComparingInt(OutboundQueue::depth).reversed());
+            System.out.println("Slow consumers (" + offenders.size() + "):");
+            for (OutboundQueue queue : offenders.subList(0, Math.min(10, offenders.size()))) {
+                System.out.println("  " + queue);
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    // Hit rate of the user directory and the lookups it spared the database since the last report
+    private static void startUserDirectoryReport() {
+        long period = Long.getLong("chat.users.reportSeconds", 60L);
+        long[] last = {0, 0}; // hits, lookups at the previous report
+        scheduler.scheduleAtFixedRate(() -> {
+            long hits = users.hits();
+            long lookups = hits + users.misses();
+            if (lookups == last[1]) {
+                return; // Nothing looked up since the last report
+            }
+            double savedPerSecond = (hits - last[0]) / (double) period;
+            last[0] = hits;
+            last[1] = lookups;
+            System.out.println("User directory: " + users + " savedQueries/s=" + String.format("%.1f", savedPerSecond));
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    // How many history reads the recent-message buffer answered instead of the database
+    private static void startRecentMessagesReport() {
+        long period = Long.getLong("chat.history.reportSeconds", 60L);
+        long[] last = {0}; // reads at the previous report
+        scheduler.scheduleAtFixedRate(() -> {
+            long reads = recentMessages.hits() + recentMessages.misses();
+            if (reads == last[0]) {
+                return;
+            }
+            last[0] = reads;
+            System.out.println("Recent messages: " + recentMessages);
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    private static void startClusterReport() {
+        if (cluster.nodeCount() == 1) {
+            return;
+        }
+        long period = Long.getLong("chat.cluster.reportSeconds", 60L);
+        scheduler.scheduleAtFixedRate(() -> System.out.println("Cluster: " + cluster + " " + presence), period, period, TimeUnit.SECONDS);
+    }
+
+    // Each outage and each recovery is announced once, to everyone connected at the time
+    private static void onDatabaseStateChange(DatabaseHealth.State state) {
+        if (state == DatabaseHealth.State.OPEN) {
+            System.out.println("Database is offline. Notifying connected clients.");
+            broadcast(DATABASE_OFFLINE);
+        } else {
+            System.out.println("Database connection restored.");
+            broadcast("INFO: Database connection restored.");
+            scheduler.execute(messageIds::seed); // In case the database was down at startup
+        }
+    }
+
+    static boolean isUserOnline(int userId) {
+        return presence.isOnline(userId);
+    }
+
+    // Sends a frame to one user only; false when that user has no open connection on any node
+    static boolean sendToUser(int userId, String message) {
+        OutboundQueue queue = presence.queueOf(userId);
+        if (queue != null) {
+            queue.enqueue(message);
+            return true;
+        }
+        if (presence.remoteNodeOf(userId) == -1) {
+            return false;
+        }
+        cluster.publish(ClusterEvent.toUser(cluster.nodeId(), userId, message)); // The node holding the user delivers it
+        return true;
+    }
+
+    // This node's clients only
+    private static void broadcast(String message) {
+        long start = System.nanoTime();
+        for (OutboundQueue queue : clientQueues) {
+            queue.enqueue(message); // Only queues the line, each client's writer sends it
+        }
+        fanOut.recordSince(start);
+    }
+
+    // Every client on every node
+    private static void broadcastToCluster(String message) {
+        broadcast(message);
+        cluster.publish(ClusterEvent.notice(cluster.nodeId(), message));
+    }
+
+    // To this node's clients: the lobby reaches everyone, a room only its members. Original text
+    // clients get the line without its id.
+    private static void deliverLocally(ChatMessage message) {
+        String line = ChatLines.line(message.messageId, message.displayName, message.content);
+        String plainLine = ChatLines.plainLine(message.displayName, message.content);
+        long start = System.nanoTime();
+        if (message.chatRoomId == -1) {
+            for (OutboundQueue queue : clientQueues) {
+                queue.enqueueChat(line, plainLine);
+            }
+        } else {
+            rooms.deliver(message.chatRoomId, line, plainLine);
+        }
+        fanOut.recordSince(start);
+    }
+
+    // Applies what the other nodes publish to the clients of this one
+    private static final class ClusterDelivery implements ClusterBus.Listener {
+        @Override
+        public void onEvent(ClusterEvent event) {
+            switch (event.type) {
+                case CHAT:
+                    recentMessages.add(event.message);
+                    deliverLocally(event.message);
+                    if (PERSIST_REMOTE) {
+                        messageWriter.submit(event.message);
+                    }
+                    break;
+                case NOTICE:
+                    broadcast(event.text);
+                    break;
+                case TO_USER:
+                    OutboundQueue queue = presence.queueOf(event.userId);
+                    if (queue != null) {
+                        queue.enqueue(event.text);
+                    }
+                    break;
+                case ONLINE:
+                    presence.remoteOnline(event.userId, event.text, event.origin);
+                    break;
+                case OFFLINE:
+                    presence.remoteOffline(event.userId, event.origin);
+                    break;
+                case CONTACT:
+                    presence.addContact(event.userId, event.contactUserId);
+                    break;
+            }
+        }
+
+        @Override
+        public void onNodeDown(int nodeId) {
+            presence.nodeDown(nodeId);
+        }
+
+        // Who is online here, for a node that just connected
+        @Override
+        public List<ClusterEvent> snapshot() {
+            List<ClusterEvent> events = new ArrayList<>();
+            for (Map.Entry<Integer, String> user : presence.localDisplayNames().entrySet()) {
+                events.add(ClusterEvent.presence(cluster.nodeId(), user.getKey(), true, user.getValue()));
+            }
+            return events;
+        }
+    }
+
+    // One instance per connected client. In thread and virtual mode it owns the socket and runs
+    // the blocking read loop; in nio mode NioChatServer feeds it lines through handleLine().
+    static class ClientHandler implements Runnable {
+        // Authenticated commands; LOGIN is handled before the user has a session
+        private static final CommandTable<ClientHandler> COMMANDS = new CommandTable<ClientHandler>()
+                .on(BinaryProtocol.LOGIN, ClientCommand.Login.class,
+                        (h, c) -> h.sendMessageToClient("ERROR: Already logged in."))
+                .on(BinaryProtocol.CHAT, ClientCommand.Chat.class,
+                        (h, c) -> h.handleChatMessage(c.displayName, c.roomId, c.content))
+                .on(BinaryProtocol.INVITE, ClientCommand.Invite.class,
+                        (h, c) -> h.handleInvitationToUser(c.invitedUserId, c.senderId))
+                .on(BinaryProtocol.INVITE_ACCEPTED, ClientCommand.InviteResponse.class,
+                        (h, c) -> h.handleInvitationAccepted(c.inviterId, c.responderId))
+                .on(BinaryProtocol.INVITE_REJECTED, ClientCommand.InviteResponse.class,
+                        (h, c) -> h.handleInvitationRejected(c.inviterId, c.responderId))
+                .on(BinaryProtocol.JOIN_ROOM, ClientCommand.RoomMembership.class, (h, c) -> h.joinRoom(c.roomId))
+                .on(BinaryProtocol.LEAVE_ROOM, ClientCommand.RoomMembership.class, (h, c) -> h.leaveRoom(c.roomId))
+                .on(BinaryProtocol.HISTORY_BEFORE, ClientCommand.HistoryBefore.class,
+                        (h, c) -> h.sendHistoryPage("HISTORY_PAGE:", c.messageId));
+
+        private Socket socket;
+        private OutboundQueue outbound;
+        private final String remoteAddress;
+        // Set last by the login worker, after userId and displayName, so a non-null username
+        // means the whole session is visible to the connection thread
+        private volatile String username;
+        private int userId = -1;
+        private String displayName;
+        private final Set<Integer> joinedRooms = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean loginPending = new AtomicBoolean();
+        private IdleReaper.Handle idle;
+        private volatile boolean disconnected = false;
+
+        public ClientHandler(Socket socket) {
+            this.socket = socket;
+            this.remoteAddress = socket.getInetAddress().getHostAddress();
+        }
+
+        ClientHandler(OutboundQueue outbound, String remoteAddress) {
+            this.outbound = outbound; // nio mode: the queue drains into the channel, there is no Socket
+            this.remoteAddress = remoteAddress;
+        }
+
+        @Override
+        public void run() {
+            watchIdle(this::closeSocket); // Also covers a client that connects and never sends a byte
+            try {
+                // One peeked byte tells a binary client (handshake) from a text one (a command letter)
+                InputStream input = new BufferedInputStream(socket.getInputStream());
+                input.mark(1);
+                int first = input.read();
+                if (first == BinaryProtocol.MAGIC) {
+                    runBinary(input);
+                } else if (first != -1) {
+                    input.reset();
+                    runText(input);
+                }
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            } finally {
+                closeSocket();
+                onDisconnect();
+            }
+        }
+
+        private void runText(InputStream input) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(input));
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+            onConnect(newOutboundQueue(out, this::closeSocket, () -> true));
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                handleLine(line);
+            }
+        }
+
+        private void runBinary(InputStream input) throws IOException {
+            int version = BinaryProtocol.negotiateVersion(input.read());
+            OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+            output.write(BinaryProtocol.MAGIC);
+            output.write(version);
+            output.flush();
+
+            // Outgoing lines become TEXT frames, so the rest of the server stays line based
+            onConnect(newOutboundQueue(new PrintWriter(new TextFrameWriter(output)), this::closeSocket, () -> true));
+
+            FrameReader reader = new FrameReader(input, BinaryProtocol.MAX_FRAME_LENGTH);
+            Frame frame;
+            while ((frame = reader.next()) != null) {
+                handleFrame(frame);
+            }
+        }
+
+        // Also used by the outbound queue to cut off a slow consumer; the read loop then ends
+        private void closeSocket() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        void onConnect(OutboundQueue outbound) {
+            this.outbound = outbound;
+            if (!repository.health().isAvailable()) {
+                outbound.enqueue(DATABASE_OFFLINE); // Joined during an outage, so missed the broadcast
+            }
+
+            clientQueues.add(outbound); // Add client queue to the set
+        }
+
+        // nio mode registers before any bytes arrive, the same as the threaded mode does in run()
+        void watchIdle(Runnable close) {
+            idle = idleReaper.register(close);
+        }
+
+        void unwatchIdle() {
+            idle.cancel();
+        }
+
+        void handleLine(String line) {
+            idle.touch();
+            try {
+                handleCommand(CommandDecoder.decode(line), line);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                sendMessageToClient("ERROR: Malformed message: " + line);
+            }
+        }
+
+        // A frame whose fields do not fit it throws, and the caller closes the connection
+        void handleFrame(Frame frame) throws IOException {
+            idle.touch();
+            handleCommand(CommandDecoder.decode(frame), "frame type " + frame.type());
+        }
+
+        private void handleCommand(ClientCommand command, String received) {
+            if (command instanceof ClientCommand.Ping) {
+                // Answered before and after login; receiving it already counted as activity
+                sendMessageToClient("PONG:" + ((ClientCommand.Ping) command).sequence);
+                return;
+            }
+            if (username == null) {
+                if (command instanceof ClientCommand.Login) {
+                    submitLogin((ClientCommand.Login) command);
+                } else if (command instanceof ClientCommand.Resume) {
+                    submitResume((ClientCommand.Resume) command);
+                }
+                return; // Nothing but LOGIN or RESUME is accepted until the user is authenticated
+            }
+            if (command == null || !COMMANDS.dispatch(this, command)) {
+                sendMessageToClient("ERROR: Unknown command: " + received);
+            }
+        }
+
+        void onDisconnect() {
+            disconnected = true; // A login still in flight undoes its own registration
+            unwatchIdle();
+            if (outbound == null) {
+                return; // Closed before it sent anything, so it never registered
+            }
+            clientQueues.remove(outbound); // Remove client queue on disconnect
+            for (int roomId : joinedRooms) {
+                rooms.leave(roomId, outbound);
+            }
+            outbound.close();
+            if (username != null) {
+                if (presence.offline(userId, outbound)) { // False if a newer login has replaced us
+                    cluster.publish(ClusterEvent.presence(cluster.nodeId(), userId, false, displayName));
+                }
+                broadcast(username + " has left the chat."); // Notify others
+            }
+        }
+
+        private void submitLogin(ClientCommand.Login attempt) {
+            if (!repository.health().isAvailable()) {
+                sendMessageToClient(DATABASE_OFFLINE); // Not a failed attempt: the credentials cannot be checked
+                return;
+            }
+            submitToLoginGate(attempt.username, false, () -> login(attempt.username, attempt.password, attempt.lastSeenMessageId, attempt.messageIds));
+        }
+
+        // Needs no database: the token proves who the user is, so resuming works during an outage too
+        private void submitResume(ClientCommand.Resume attempt) {
+            UserRecord user = sessions.verify(attempt.token);
+            if (user == null) {
+                sendMessageToClient("RESUME_FAILED"); // The client falls back to LOGIN
+                return;
+            }
+            submitToLoginGate(user.username, true, () -> startSession(user.userId, user.username, user.displayName, attempt.lastSeenMessageId, true));
+        }
+
+        // A resume is token-authenticated, so it skips the per-IP attempt limit
+        private void submitToLoginGate(String usernameAttempt, boolean resume, Runnable work) {
+            if (!loginPending.compareAndSet(false, true)) {
+                sendMessageToClient("ERROR: Login already in progress.");
+                return;
+            }
+            Runnable task = () -> {
+                try {
+                    work.run();
+                } finally {
+                    loginPending.set(false);
+                }
+            };
+            LoginGate.Decision decision = resume ? loginGate.submitResume(task) : loginGate.submit(remoteAddress, usernameAttempt, task);
+            if (decision != LoginGate.Decision.ADMITTED) {
+                loginPending.set(false);
+                sendMessageToClient(decision == LoginGate.Decision.RATE_LIMITED
+                        ? "ERROR: Too many login attempts. Please wait before trying again."
+                        : "ERROR: Server is busy. Please try again shortly.");
+            }
+        }
+
+        // Runs on a login worker
+        private void login(String usernameAttempt, String passwordAttempt, long lastSeenMessageId, boolean messageIds) {
+            // Check credentials from the database, one query returns id and display name as well
+            long start = System.nanoTime();
+            UserRecord user = checkCredentials(usernameAttempt, passwordAttempt);
+            loginGate.recordLatency(System.nanoTime() - start);
+            if (user != null) {
+                startSession(user.userId, usernameAttempt, user.displayName, lastSeenMessageId, messageIds);
+            } else {
+                loginFailures.increment();
+                loginGate.recordFailure(usernameAttempt);
+                sendMessageToClient("ERROR: Invalid username or password. Please try again.");
+            }
+            loginLatency.recordSince(start);
+        }
+
+        // After LOGIN, LOGIN_SINCE or RESUME; lastSeenMessageId > 0 sends only what the client missed.
+        // Without messageIds (a plain text LOGIN) the client gets the original protocol: chat
+        // lines without ids, a MESSAGES: block without HISTORY_END, and no session token.
+        private void startSession(int sessionUserId, String sessionUsername, String sessionDisplayName, long lastSeenMessageId, boolean messageIds) {
+            userId = sessionUserId;
+            displayName = sessionDisplayName;
+            username = sessionUsername; // Set username on successful login
+
+            outbound.setLabel(username + " (" + userId + ")");
+            outbound.setMessageIds(messageIds);
+            presence.online(userId, displayName, outbound, retrieveContactIds(userId));
+            users.put(userId, username, displayName); // Replaces any stale entry for this user
+            if (disconnected) {
+                // The connection closed while we were checking; onDisconnect may not have seen a session
+                presence.offline(userId, outbound);
+                return;
+            }
+            cluster.publish(ClusterEvent.presence(cluster.nodeId(), userId, true, displayName));
+            logins.increment();
+
+            sendMessageToClient("Welcome " + username + "!"); // Send welcome message
+            sendMessageToClient("USER_ID:" + userId);
+            sendMessageToClient("DISPLAY_NAME:" + displayName); // Send display name to the client
+            if (messageIds) {
+                sendMessageToClient("SESSION:" + sessions.issue(userId, username, displayName));
+            }
+
+            if (lastSeenMessageId > 0) {
+                sendMissedMessages(lastSeenMessageId);
+            } else {
+                sendRetrievedMessagesToClient(); // Send messages to the client
+            }
+
+            broadcast(displayName + " has joined the chat."); // Notify others
+        }
+    
+        private void handleChatMessage(String displayName, int chatRoomId, String messageContent) {
+            if (chatRoomId != -1 && !rooms.isMember(chatRoomId, outbound)) {
+                sendMessageToClient("ERROR: Join room " + chatRoomId + " before sending messages to it.");
+                return;
+            }
+            messagesIn.increment();
+            ChatMessage message = acceptMessage(displayName, messageContent, chatRoomId);
+            deliverLocally(message);
+            cluster.publish(ClusterEvent.chat(cluster.nodeId(), message)); // Other nodes deliver to their own clients
+
+            // Queue the message for the database, the write happens in a later batch
+            messageWriter.submit(message);
+        }
+
+        private void handleInvitationAccepted(int senderId, int receiverId) {
+            saveContactToDatabase(String.valueOf(senderId), String.valueOf(receiverId)); //Save Contact to Contacts Table
+            presence.addContact(senderId, receiverId); // Both now see each other come and go
+            cluster.publish(ClusterEvent.contact(cluster.nodeId(), senderId, receiverId)); // Either may be on another node
+            String users = retrieveContactsFromDB(String.valueOf(senderId));
+
+            sendMessageToClient(users);
+            sendToUser(senderId, "INVITE_ACCEPTED:" + senderId + ":" + receiverId); // Tell the inviter, and only the inviter
+        }
+
+        private void handleInvitationRejected(int senderId, int receiverId) {
+            sendToUser(senderId, "INVITE_REJECTED:" + senderId + ":" + receiverId);
+            // Optionally update the database to reflect the invitation was rejected
+        }
+
+        // JOIN_ROOM:<chatRoomId> or LEAVE_ROOM:<chatRoomId>, acknowledged with JOINED_ROOM / LEFT_ROOM
+        private void joinRoom(int chatRoomId) {
+            rooms.join(chatRoomId, outbound);
+            joinedRooms.add(chatRoomId);
+            sendMessageToClient("JOINED_ROOM:" + chatRoomId);
+        }
+
+        private void leaveRoom(int chatRoomId) {
+            rooms.leave(chatRoomId, outbound);
+            joinedRooms.remove(chatRoomId);
+            sendMessageToClient("LEFT_ROOM:" + chatRoomId);
+        }
+
+        public void saveContactToDatabase(String senderId, String receiverId) {
+            try {
+                repository.saveContact(senderId, receiverId);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        
+        private Set<Integer> retrieveContactIds(int userId) {
+            try {
+                return repository.findContactIds(userId);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return Collections.emptySet(); // Presence still works, just without contact updates
+            }
+        }
+
+        public String retrieveContactsFromDB(String senderId) {
+            String users = "Users";
+            try {
+                for (String storedUser : repository.findContacts(senderId)) {
+                    users += ":" + storedUser;
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return users;
+        }
+        
+        // Returns the user when the password matches, otherwise null
+        private UserRecord checkCredentials(String username, String password) {
+            try {
+                UserRecord user = repository.findLogin(username);
+                // Constant-time compare so response timing does not reveal how much of the password matched
+                if (user != null && MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                        user.password.getBytes(StandardCharsets.UTF_8))) {
+                    return user;
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return null; // Return null if credentials are invalid
+        }
+        
+        private void sendMessageToClient(String message) {
+            if (outbound != null) {
+                outbound.enqueue(message);
+            }
+        }
+
+
+        // Invitations go straight to the invited user's connection; the replies go back only to the sender
+        private void handleInvitationToUser(int toSendInviteTo, int userIdOfSender) {
+            if (sendToUser(toSendInviteTo, "ADD_USER_INVITE:" + toSendInviteTo + ":" + userIdOfSender)) { //Only online users can receive invitations
+                invitesSent.increment();
+                return;
+            }
+            try {
+                // Offline or unknown; only a user the directory has not seen needs the database
+                if (users.cachedDisplayName(toSendInviteTo) == null
+                        && repository.findActiveStatus(String.valueOf(toSendInviteTo)) == null) {
+                    sendMessageToClient(userIdOfSender + ":USER_NOT_FOUND");
+                } else {
+                    sendMessageToClient(userIdOfSender + ":RESP_USER_INVITE:Server cannot send request to this user right now");
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        
+        // The lobby and the rooms this connection joined; history never carries another room's messages
+        private Set<Integer> visibleRooms() {
+            Set<Integer> visible = new HashSet<>(joinedRooms);
+            visible.add(-1);
+            return visible;
+        }
+
+        private long retrieveMessages(long beforeMessageId, StringBuilder frame, boolean messageIds) {
+            List<ChatMessage> recent = recentMessages.page(beforeMessageId, HISTORY_PAGE_SIZE, visibleRooms());
+            if (recent != null) {
+                ChatLines.append(frame, recent, messageIds);
+                return recent.size() < HISTORY_PAGE_SIZE ? 0 : recent.get(0).messageId;
+            }
+            long[] oldest = {0};
+            try {
+                int rows = repository.streamHistoryPage(beforeMessageId, HISTORY_PAGE_SIZE, visibleRooms(), (messageId, name, content) -> {
+                    if (oldest[0] == 0) {
+                        oldest[0] = messageId;
+                    }
+                    frame.append('\n').append(messageIds ? ChatLines.line(messageId, name, content) : ChatLines.plainLine(name, content));
+                });
+                return rows < HISTORY_PAGE_SIZE ? 0 : oldest[0];
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return 0;
+        }
+
+        // Login replay: the latest page only. The page is one queue entry, so live messages can
+        // not land in the middle of it. The client asks for older pages with HISTORY_BEFORE.
+        private void sendRetrievedMessagesToClient() {
+            sendHistoryPage("MESSAGES:", Long.MAX_VALUE);
+        }
+
+        // HISTORY_DELTA: block with the messages after lastSeenMessageId, or the latest page if too many were missed
+        private void sendMissedMessages(long lastSeenMessageId) {
+            StringBuilder frame = new StringBuilder("HISTORY_DELTA:");
+            List<ChatMessage> recent = recentMessages.after(lastSeenMessageId, RESUME_DELTA_LIMIT + 1, visibleRooms());
+            if (recent != null) {
+                if (recent.size() > RESUME_DELTA_LIMIT) {
+                    sendRetrievedMessagesToClient();
+                    return;
+                }
+                ChatLines.append(frame, recent);
+                frame.append("\nHISTORY_END:0");
+                sendMessageToClient(frame.toString());
+                return;
+            }
+            try {
+                int rows = repository.streamMessagesAfter(lastSeenMessageId, RESUME_DELTA_LIMIT + 1, visibleRooms(), (messageId, name, content) -> {
+                    frame.append('\n').append(ChatLines.line(messageId, name, content));
+                });
+                if (rows > RESUME_DELTA_LIMIT) {
+                    sendRetrievedMessagesToClient();
+                    return;
+                }
+            } catch (SQLException e) {
+                e.printStackTrace(); // Send what there is; the client can still page back for older messages
+            }
+            frame.append("\nHISTORY_END:0");
+            sendMessageToClient(frame.toString());
+        }
+
+        // HISTORY_BEFORE:<messageId>, answered with a HISTORY_PAGE: block. An original text client
+        // only ever gets the login page, as plain lines without the HISTORY_END it does not know.
+        private void sendHistoryPage(String header, long beforeMessageId) {
+            boolean messageIds = outbound.messageIds();
+            StringBuilder frame = new StringBuilder(header);
+            long oldest = retrieveMessages(beforeMessageId, frame, messageIds);
+            if (messageIds) {
+                frame.append("\nHISTORY_END:").append(oldest);
+            }
+            sendMessageToClient(frame.toString());
+        }
+
+        // Gives the message its id and keeps it among the recent messages of its room
+        private ChatMessage acceptMessage(String displayName, String messageContent, int chatRoomId) {
+            // Our own messages already know their user_id; other names come from the user directory,
+            // and a name it does not know yet is resolved by the writer
+            int senderId = displayName.equals(this.displayName) ? userId : users.cachedUserIdByDisplayName(displayName);
+            return recentMessages.accept(senderId, displayName, messageContent, chatRoomId);
+        }
+
+        private void broadcast(String message) {
+            broadcastToCluster(message);
+        }
+    }
+}
+
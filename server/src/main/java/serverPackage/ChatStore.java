@@ -0,0 +1,64 @@
+package serverPackage;
+
+import java.sql.*;
+import java.util.*;
+
+// Everything the server persists: users, contacts, presence and chat messages. ChatRepository
+// keeps them in MySQL; EmbeddedChatStore keeps them in local files for nodes and test setups
+// without a database. Pick one with -Dchat.store=mysql|embedded.
+//
+// Methods throw SQLException for either backend, so callers keep a single way to degrade.
+public interface ChatStore {
+    interface HistoryRowHandler {
+        void row(long messageId, String displayName, String messageContent);
+    }
+
+    static ChatStore fromSystemProperties() {
+        String store = System.getProperty("chat.store", "mysql");
+        switch (store) {
+            case "mysql":
+                return ChatRepository.fromSystemProperties();
+            case "embedded":
+                return EmbeddedChatStore.fromSystemProperties();
+            default:
+                throw new IllegalArgumentException("Unknown chat.store " + store + " (expected mysql or embedded)");
+        }
+    }
+
+    // Breaker in front of the backend; an embedded store is always available
+    DatabaseHealth health();
+
+    // Id, display name and stored password together, or null
+    UserRecord findLogin(String username) throws SQLException;
+
+    // -1 when no user has the display name
+    int findUserIdByDisplayName(String displayName) throws SQLException;
+
+    // is_active for the user, or null when the user does not exist
+    Integer findActiveStatus(String userId) throws SQLException;
+
+    void saveContact(String senderId, String receiverId) throws SQLException;
+
+    // Contacts the user added
+    List<String> findContacts(String userId) throws SQLException;
+
+    // Contacts in either direction: an accepted invitation links both users
+    Set<Integer> findContactIds(int userId) throws SQLException;
+
+    // Latest presence per user: logins set is_active, logouts also stamp last_login
+    void saveActiveStatuses(List<PresenceChange> changes) throws SQLException;
+
+    // Messages must already carry a resolved user_id; messageId -1 lets the store assign one
+    void saveMessages(List<ChatMessage> messages) throws SQLException;
+
+    // 0 when there are no messages
+    long findMaxMessageId() throws SQLException;
+
+    // Up to limit messages newer than afterMessageId in the given rooms (-1 is the lobby), oldest
+    // first; returns the number of rows
+    int streamMessagesAfter(long afterMessageId, int limit, Collection<Integer> chatRoomIds, HistoryRowHandler handler) throws SQLException;
+
+    // The newest limit messages older than beforeMessageId in the given rooms (-1 is the lobby),
+    // oldest first; returns the number of rows
+    int streamHistoryPage(long beforeMessageId, int limit, Collection<Integer> chatRoomIds, HistoryRowHandler handler) throws SQLException;
+}
@@ -0,0 +1,66 @@
+package serverPackage;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+// Carries ClusterEvents between ChatServer nodes. Each node delivers to its own connections and
+// publishes the event; the bus hands it to every other node, in publish order per origin.
+// Pick one with -Dchat.cluster.bus:
+//   none (default)  a single node; publish goes nowhere
+//   loopback        nodes inside one JVM that share -Dchat.cluster.group, for tests;
+//                   -Dchat.cluster.nodeCount says how many there will be
+//   tcp             a full mesh of nodes listed in -Dchat.cluster.nodes=host:port,host:port,...
+//                   that share -Dchat.cluster.secret
+// A node is -Dchat.cluster.nodeId, its index in that list (0 on its own).
+public interface ClusterBus extends Closeable {
+    interface Listener {
+        void onEvent(ClusterEvent event);
+
+        // The node stopped talking to us; whatever it said about its users no longer holds
+        void onNodeDown(int nodeId);
+
+        // Sent ahead of everything else to a node we (re)connect to, so it can rebuild what it lost
+        List<ClusterEvent> snapshot();
+    }
+
+    static ClusterBus fromSystemProperties() {
+        String bus = System.getProperty("chat.cluster.bus", "none");
+        int nodeId = Integer.getInteger("chat.cluster.nodeId", 0);
+        switch (bus) {
+            case "none":
+                return new StandaloneBus();
+            case "loopback":
+                return LoopbackBus.join(System.getProperty("chat.cluster.group", "default"), nodeId,
+                        Integer.getInteger("chat.cluster.nodeCount", 1));
+            case "tcp": {
+                List<InetSocketAddress> nodes = new ArrayList<>();
+                for (String node : System.getProperty("chat.cluster.nodes", "").split(",")) {
+                    int colon = node.lastIndexOf(':');
+                    if (colon < 0) {
+                        throw new IllegalArgumentException("chat.cluster.nodes entry " + node + " is not host:port");
+                    }
+                    nodes.add(new InetSocketAddress(node.substring(0, colon).trim(), Integer.parseInt(node.substring(colon + 1).trim())));
+                }
+                if (nodeId < 0 || nodeId >= nodes.size()) {
+                    throw new IllegalArgumentException("chat.cluster.nodeId " + nodeId + " is not an index into chat.cluster.nodes");
+                }
+                return new TcpMeshBus(nodeId, nodes, Integer.getInteger("chat.cluster.queueCapacity", 10_000),
+                        System.getProperty("chat.cluster.secret"));
+            }
+            default:
+                throw new IllegalArgumentException("Unknown chat.cluster.bus " + bus + " (expected none, loopback or tcp)");
+        }
+    }
+
+    // Events arrive on the bus's own threads from then on
+    void start(Listener listener) throws IOException;
+
+    // Never blocks the caller on another node
+    void publish(ClusterEvent event);
+
+    int nodeId();
+
+    // Fixed for the life of the cluster; message ids are striped across this many nodes
+    int nodeCount();
+}
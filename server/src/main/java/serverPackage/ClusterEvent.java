@@ -0,0 +1,127 @@
+package serverPackage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+// What one node tells the others: everything a local connection does that clients on another
+// node must see. The origin node has already handled the event for its own clients.
+public final class ClusterEvent {
+    private static final int MAX_STRING_BYTES = 1 << 20; // Guards the reader against a corrupt length
+
+    public enum Type {
+        CHAT,     // message: deliver to the lobby or the room, and keep among recent messages
+        NOTICE,   // text: a line for every connected client, such as "<name> has joined the chat."
+        TO_USER,  // userId, text: a line for one user, delivered by whichever node holds them
+        ONLINE,   // userId, text = display name: the user now has a session on the origin node
+        OFFLINE,  // userId, text = display name: that session ended
+        CONTACT   // userId, contactUserId: a new contact pair, so both sides watch each other
+    }
+
+    public final Type type;
+    public final int origin;
+    public final ChatMessage message;
+    public final int userId;
+    public final int contactUserId;
+    public final String text;
+
+    private ClusterEvent(Type type, int origin, ChatMessage message, int userId, int contactUserId, String text) {
+        this.type = type;
+        this.origin = origin;
+        this.message = message;
+        this.userId = userId;
+        this.contactUserId = contactUserId;
+        this.text = text;
+    }
+
+    public static ClusterEvent chat(int origin, ChatMessage message) {
+        return new ClusterEvent(Type.CHAT, origin, message, message.userId, -1, null);
+    }
+
+    public static ClusterEvent notice(int origin, String line) {
+        return new ClusterEvent(Type.NOTICE, origin, null, -1, -1, line);
+    }
+
+    public static ClusterEvent toUser(int origin, int userId, String line) {
+        return new ClusterEvent(Type.TO_USER, origin, null, userId, -1, line);
+    }
+
+    public static ClusterEvent presence(int origin, int userId, boolean isOnline, String displayName) {
+        return new ClusterEvent(isOnline ? Type.ONLINE : Type.OFFLINE, origin, null, userId, -1, displayName);
+    }
+
+    public static ClusterEvent contact(int origin, int userId, int contactUserId) {
+        return new ClusterEvent(Type.CONTACT, origin, null, userId, contactUserId, null);
+    }
+
+    // <byte type><int origin> then the fields of the type; strings are <int length><UTF-8>
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeInt(origin);
+        switch (type) {
+            case CHAT:
+                out.writeLong(message.messageId);
+                out.writeLong(message.timestamp);
+                out.writeInt(message.userId);
+                out.writeInt(message.chatRoomId);
+                writeString(out, message.displayName);
+                writeString(out, message.content);
+                break;
+            case NOTICE:
+                writeString(out, text);
+                break;
+            case CONTACT:
+                out.writeInt(userId);
+                out.writeInt(contactUserId);
+                break;
+            default: // TO_USER, ONLINE, OFFLINE
+                out.writeInt(userId);
+                writeString(out, text);
+        }
+    }
+
+    public static ClusterEvent readFrom(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= Type.values().length) {
+            throw new IOException("Unknown cluster event type " + ordinal);
+        }
+        Type type = Type.values()[ordinal];
+        int origin = in.readInt();
+        switch (type) {
+            case CHAT: {
+                long messageId = in.readLong();
+                long timestamp = in.readLong();
+                int userId = in.readInt();
+                int chatRoomId = in.readInt();
+                String displayName = readString(in);
+                return chat(origin, new ChatMessage(messageId, userId, displayName, readString(in), chatRoomId, timestamp));
+            }
+            case NOTICE:
+                return notice(origin, readString(in));
+            case CONTACT:
+                return contact(origin, in.readInt(), in.readInt());
+            default:
+                return new ClusterEvent(type, origin, null, in.readInt(), -1, readString(in));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Cluster event string of " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return type + " from node " + origin;
+    }
+}
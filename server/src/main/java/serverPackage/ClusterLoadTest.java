@@ -0,0 +1,195 @@
+package serverPackage;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Starts a cluster of ChatServer nodes on this machine, one JVM each on its own port, with the
+// TCP mesh bus and embedded stores, then spreads text clients evenly over the nodes. Every client
+// sends lobby messages, and every client must receive every message, whichever node the sender
+// is on. Reports delivery completeness, throughput and end-to-end latency.
+// Usage: java serverPackage.ClusterLoadTest [nodes] [clientsPerNode] [messagesPerClient] [basePort]
+// Chat ports are basePort.., cluster ports basePort+100.., metrics basePort+200..; node logs go to
+// the working directory.
+public class ClusterLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int clientsPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int messagesPerClient = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int basePort = args.length > 3 ? Integer.parseInt(args[3]) : 12400;
+        int clientCount = nodes * clientsPerNode;
+
+        File directory = Files.createTempDirectory("chat-cluster").toFile();
+        File usersFile = new File(directory, "users.txt");
+        try (PrintWriter users = new PrintWriter(usersFile, "UTF-8")) {
+            for (int i = 0; i < clientCount; i++) {
+                users.println("load" + i + ":pw:Load" + i);
+            }
+        }
+
+        StringBuilder clusterNodes = new StringBuilder();
+        for (int i = 0; i < nodes; i++) {
+            clusterNodes.append(i == 0 ? "" : ",").append("localhost:").append(basePort + 100 + i);
+        }
+        String secret = Long.toHexString(new SecureRandom().nextLong()); // Fresh for each run
+        List<Process> servers = new ArrayList<>();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> servers.forEach(Process::destroy)));
+        for (int i = 0; i < nodes; i++) {
+            servers.add(new ProcessBuilder(
+                    new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath(),
+                    "-cp", System.getProperty("java.class.path"),
+                    "-Dchat.server.port=" + (basePort + i),
+                    "-Dchat.store=embedded",
+                    "-Dchat.store.dir=" + new File(directory, "node-" + i),
+                    "-Dchat.store.usersFile=" + usersFile,
+                    "-Dchat.cluster.bus=tcp",
+                    "-Dchat.cluster.nodes=" + clusterNodes,
+                    "-Dchat.cluster.nodeId=" + i,
+                    "-Dchat.cluster.secret=" + secret,
+                    "-Dchat.cluster.persistRemote=true",
+                    "-Dchat.metrics.port=" + (basePort + 200 + i),
+                    "-Dchat.login.ipBurst=" + (clientCount * 2), // Every client logs in from localhost
+                    "-Dchat.login.ipPerSecond=1000",
+                    "serverPackage.ChatServer")
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File("cluster-node-" + i + ".log"))
+                    .start());
+        }
+        for (int i = 0; i < nodes; i++) {
+            awaitPort(basePort + i);
+        }
+        Thread.sleep(1000); // Let the nodes dial each other
+
+        long[] latencies = new long[clientCount * messagesPerClient * clientCount];
+        AtomicInteger latencyCount = new AtomicInteger();
+        AtomicLong delivered = new AtomicLong();
+        CountDownLatch loggedIn = new CountDownLatch(clientCount);
+        List<LoadClient> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            LoadClient client = new LoadClient(i, basePort + i % nodes, loggedIn, delivered, latencies, latencyCount);
+            clients.add(client);
+            client.start();
+        }
+        if (!loggedIn.await(30, TimeUnit.SECONDS)) {
+            System.out.println("Only " + (clientCount - loggedIn.getCount()) + " of " + clientCount + " clients logged in");
+        }
+        Thread.sleep(500); // Presence and join notices settle before the measured part
+
+        long expected = (long) clientCount * messagesPerClient * clientCount;
+        long start = System.nanoTime();
+        List<Thread> senders = new ArrayList<>();
+        for (LoadClient client : clients) {
+            Thread sender = new Thread(() -> client.send(messagesPerClient), "sender-" + client.index);
+            senders.add(sender);
+            sender.start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (delivered.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int count = latencyCount.get();
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        System.out.println("nodes                : " + nodes);
+        System.out.println("clients              : " + clientCount + " (" + clientsPerNode + " per node)");
+        System.out.println("messages sent        : " + (long) clientCount * messagesPerClient);
+        System.out.println("deliveries           : " + delivered.get() + " of " + expected
+                + String.format(" (%.2f%%)", 100.0 * delivered.get() / expected));
+        System.out.printf("throughput           : %.0f deliveries/s over %.2f s%n", delivered.get() / seconds, seconds);
+        if (count > 0) {
+            System.out.printf("latency p50/p99/max  : %.2f / %.2f / %.2f ms%n",
+                    sorted[count / 2] / 1e6, sorted[Math.min(count - 1, (int) (count * 0.99))] / 1e6, sorted[count - 1] / 1e6);
+        }
+
+        for (LoadClient client : clients) {
+            client.close();
+        }
+        System.exit(delivered.get() == expected ? 0 : 1);
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Node on port " + port + " did not start; see its log");
+    }
+
+    // One text-protocol client; lines it sends carry System.nanoTime(), which every client in
+    // this JVM shares, so the receiver can tell how long the line took
+    private static final class LoadClient extends Thread {
+        final int index;
+        private final Socket socket;
+        private final PrintWriter out;
+        private final BufferedReader in;
+        private final CountDownLatch loggedIn;
+        private final AtomicLong delivered;
+        private final long[] latencies;
+        private final AtomicInteger latencyCount;
+
+        LoadClient(int index, int port, CountDownLatch loggedIn, AtomicLong delivered, long[] latencies,
+                   AtomicInteger latencyCount) throws IOException {
+            super("load-client-" + index);
+            setDaemon(true);
+            this.index = index;
+            this.socket = new Socket("localhost", port);
+            this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.loggedIn = loggedIn;
+            this.delivered = delivered;
+            this.latencies = latencies;
+            this.latencyCount = latencyCount;
+        }
+
+        @Override
+        public void run() {
+            out.println("LOGIN_SINCE:0:load" + index + ":pw"); // Asks for MSG:<id> lines
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("SESSION:")) {
+                        loggedIn.countDown();
+                    } else if (line.startsWith("MSG:")) {
+                        int stamp = line.lastIndexOf("load ");
+                        if (stamp >= 0) {
+                            long sentAt = Long.parseLong(line.substring(stamp + 5));
+                            int slot = latencyCount.getAndIncrement();
+                            if (slot < latencies.length) {
+                                latencies[slot] = System.nanoTime() - sentAt;
+                            }
+                            delivered.incrementAndGet();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Closed at the end of the run
+            }
+        }
+
+        void send(int messages) {
+            for (int i = 0; i < messages; i++) {
+                out.println("MESSAGE:Load" + index + ":null:load " + System.nanoTime());
+            }
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+}
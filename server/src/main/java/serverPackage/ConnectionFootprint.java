@@ -0,0 +1,85 @@
+package serverPackage;
+
+import java.lang.management.*;
+import java.net.*;
+import java.util.*;
+
+// Opens N idle connections against an in-process ChatServer and reports what each one costs.
+// Usage: java serverPackage.ConnectionFootprint <thread|virtual|nio> [connections] [port]
+// The client sockets live in the same JVM and cost the same in every mode, so compare the
+// runs against each other rather than reading the absolute numbers as server-only cost.
+public class ConnectionFootprint {
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "thread";
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 12399;
+
+        Thread server = new Thread(() -> ChatServer.serve(mode, port), "footprint-server");
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(500); // Let the server bind
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long heapBefore = usedHeapAfterGc();
+        int threadsBefore = threads.getThreadCount();
+
+        List<Socket> sockets = new ArrayList<>(connections);
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            sockets.add(new Socket("localhost", port));
+        }
+        Thread.sleep(2000); // Let every connection be accepted and set up on the server side
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        long heapAfter = usedHeapAfterGc();
+        int threadsAfter = threads.getThreadCount();
+        long stackBytes = stackSizeBytes();
+
+        double heapPerConnection = (heapAfter - heapBefore) / (double) connections;
+        double threadsPerConnection = (threadsAfter - threadsBefore) / (double) connections;
+        double reservedStackPerConnection = threadsPerConnection * stackBytes;
+
+        System.out.println("mode                         : " + mode);
+        System.out.println("connections                  : " + connections + " (opened in " + elapsedMillis + " ms)");
+        System.out.println("live threads                 : " + threadsBefore + " -> " + threadsAfter);
+        System.out.printf("heap per connection          : %.0f bytes%n", heapPerConnection);
+        System.out.printf("threads per connection       : %.3f%n", threadsPerConnection);
+        System.out.printf("reserved stack per connection: %.0f KB (at %d KB per thread)%n",
+                reservedStackPerConnection / 1024, stackBytes / 1024);
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        System.exit(0);
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Honors -Xss when it was given, otherwise the 64-bit HotSpot default of 1 MB
+    private static long stackSizeBytes() {
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-Xss")) {
+                String value = arg.substring(4).toLowerCase();
+                long multiplier = 1;
+                if (value.endsWith("k")) {
+                    multiplier = 1024;
+                } else if (value.endsWith("m")) {
+                    multiplier = 1024 * 1024;
+                }
+                if (multiplier != 1) {
+                    value = value.substring(0, value.length() - 1);
+                }
+                return Long.parseLong(value) * multiplier;
+            }
+        }
+        return 1024 * 1024;
+    }
+}
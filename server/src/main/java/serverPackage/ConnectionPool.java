@@ -0,0 +1,134 @@
+package serverPackage;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Bounded pool of JDBC connections. Each pooled connection keeps its own prepared statement
+// cache, so a hot query is parsed once per connection instead of once per call.
+public class ConnectionPool {
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 30_000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final BlockingQueue<PooledConnection> idle;
+    private final AtomicInteger opened = new AtomicInteger();
+
+    public ConnectionPool(String url, String user, String password, int maxSize, long borrowTimeoutMillis) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    // Use with try-with-resources; close() hands the connection back to the pool
+    public PooledConnection borrow() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null) {
+            if (pooled.isUsable()) {
+                return pooled;
+            }
+            pooled.discard();
+        }
+
+        if (opened.incrementAndGet() <= maxSize) {
+            try {
+                return new PooledConnection(DriverManager.getConnection(url, user, password));
+            } catch (SQLException e) {
+                opened.decrementAndGet();
+                throw e;
+            }
+        }
+        opened.decrementAndGet();
+
+        try {
+            pooled = idle.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        if (pooled == null) {
+            throw new SQLTransientConnectionException("No database connection available within " + borrowTimeoutMillis + " ms");
+        }
+        if (!pooled.isUsable()) {
+            pooled.discard();
+            return borrow();
+        }
+        return pooled;
+    }
+
+    public int openConnections() {
+        return opened.get();
+    }
+
+    public int idleConnections() {
+        return idle.size();
+    }
+
+    public class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private long lastUsed = System.currentTimeMillis();
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        // Returns a cached statement; callers must not close it
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null || stmt.isClosed()) {
+                stmt = connection.prepareStatement(sql);
+                statements.put(sql, stmt);
+            } else {
+                stmt.clearParameters();
+            }
+            return stmt;
+        }
+
+        public Connection connection() {
+            return connection;
+        }
+
+        private boolean isUsable() {
+            try {
+                if (connection.isClosed()) {
+                    return false;
+                }
+                // A connection that sat idle may have been dropped by the server; check before reuse
+                return System.currentTimeMillis() - lastUsed < VALIDATE_AFTER_IDLE_MILLIS || connection.isValid(2);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private void discard() {
+            opened.decrementAndGet();
+            try {
+                connection.close(); // Also closes the cached statements
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void close() {
+            lastUsed = System.currentTimeMillis();
+            boolean closed;
+            try {
+                closed = connection.isClosed();
+            } catch (SQLException e) {
+                closed = true;
+            }
+            if (closed || !idle.offer(this)) {
+                discard();
+            }
+        }
+    }
+}
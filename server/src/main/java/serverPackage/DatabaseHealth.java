@@ -0,0 +1,140 @@
+package serverPackage;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// One health check for the whole server plus a circuit breaker in front of the connection pool.
+// The breaker opens when the probe fails or after failureThreshold consecutive failed borrows;
+// while it is open, borrows fail at once instead of waiting on a dead MySQL, and only the
+// probe touches the database. The first successful probe closes it again.
+public class DatabaseHealth {
+    public enum State {
+        CLOSED, // Database reachable, requests go through
+        OPEN    // Database down, requests fail fast until the probe succeeds
+    }
+
+    public interface Listener {
+        void onStateChange(State state);
+    }
+
+    private final ConnectionPool pool;
+    private final int failureThreshold;
+    private final long probeIntervalMillis;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+    private volatile long openedAt = 0;
+    private ScheduledExecutorService prober;
+
+    public DatabaseHealth(ConnectionPool pool, int failureThreshold, long probeIntervalMillis) {
+        this.pool = pool;
+        this.failureThreshold = failureThreshold;
+        this.probeIntervalMillis = probeIntervalMillis;
+    }
+
+    // For a store with no remote database: never opens and never probes
+    public static DatabaseHealth alwaysAvailable() {
+        return new DatabaseHealth(null, Integer.MAX_VALUE, 0);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // The probe blocks on JDBC for up to the borrow timeout plus the isValid timeout, so it gets a
+    // thread of its own rather than stalling the server's shared scheduler
+    public synchronized void start() {
+        if (pool == null || prober != null) {
+            return;
+        }
+        prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "database-health-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probe, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Borrows from the pool through the breaker, recording the outcome
+    public ConnectionPool.PooledConnection borrow() throws SQLException {
+        if (state.get() == State.OPEN) {
+            rejected.incrementAndGet();
+            throw new SQLTransientConnectionException("Database is offline (circuit open since " + new java.util.Date(openedAt) + ")");
+        }
+        try {
+            ConnectionPool.PooledConnection conn = pool.borrow();
+            consecutiveFailures.set(0);
+            return conn;
+        } catch (SQLTransientConnectionException e) {
+            throw e; // Pool exhausted: the database is busy, not down
+        } catch (SQLException e) {
+            if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                transition(State.OPEN);
+            }
+            throw e;
+        }
+    }
+
+    // Runs on the probe thread; also callable directly when a caller needs a fresh answer
+    public boolean probe() {
+        if (pool == null) {
+            return true;
+        }
+        probes.incrementAndGet();
+        boolean online;
+        try (ConnectionPool.PooledConnection conn = pool.borrow()) {
+            online = conn.connection().isValid(2);
+        } catch (SQLTransientConnectionException e) {
+            return isAvailable(); // Pool exhausted: every connection is busy, which says nothing either way
+        } catch (SQLException e) {
+            online = false;
+        }
+        if (online) {
+            consecutiveFailures.set(0);
+        }
+        transition(online ? State.CLOSED : State.OPEN);
+        return online;
+    }
+
+    private void transition(State next) {
+        State previous = state.getAndSet(next);
+        if (previous == next) {
+            return; // Listeners hear about each outage and each recovery exactly once
+        }
+        if (next == State.OPEN) {
+            openedAt = System.currentTimeMillis();
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.onStateChange(next);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public boolean isAvailable() {
+        return state.get() == State.CLOSED;
+    }
+
+    public State state() {
+        return state.get();
+    }
+
+    public long rejectedRequests() {
+        return rejected.get();
+    }
+
+    public long probes() {
+        return probes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "state=" + state() + " consecutiveFailures=" + consecutiveFailures.get() + " rejected=" + rejectedRequests() + " probes=" + probes();
+    }
+}
@@ -0,0 +1,155 @@
+package serverPackage;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.function.Predicate;
+
+// The embedded ChatStore: no MySQL, everything under one local directory. Messages go to a
+// segmented append-only MessageLog, users, presence and contacts to a UserStore journal. Both
+// are forced to disk once per batch, so a write the server acknowledged survives a crash.
+//
+// There is no sign-up in this tree, so users come from a plain-text file named by
+// -Dchat.store.usersFile (username:password:displayName per line); new lines are added on start.
+public class EmbeddedChatStore implements ChatStore {
+    private final MessageLog messages;
+    private final UserStore users;
+    private final DatabaseHealth health = DatabaseHealth.alwaysAvailable();
+
+    public EmbeddedChatStore(MessageLog messages, UserStore users) {
+        this.messages = messages;
+        this.users = users;
+    }
+
+    // -Dchat.store.dir (default chat-data) holds the message segments and the user journal
+    public static EmbeddedChatStore fromSystemProperties() {
+        File directory = new File(System.getProperty("chat.store.dir", "chat-data"));
+        try {
+            MessageLog messages = new MessageLog(new File(directory, "messages"), Long.getLong("chat.store.segmentBytes", 64L << 20));
+            UserStore users = new UserStore(new File(directory, "users.journal"));
+            String usersFile = System.getProperty("chat.store.usersFile");
+            if (usersFile != null) {
+                System.out.println("Imported " + users.importUsers(new File(usersFile)) + " users from " + usersFile);
+            }
+            System.out.println("Embedded store in " + directory + ": " + messages.size() + " messages, last id " + messages.maxMessageId());
+            return new EmbeddedChatStore(messages, users);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open embedded store in " + directory, e);
+        }
+    }
+
+    public UserStore users() {
+        return users;
+    }
+
+    @Override
+    public DatabaseHealth health() {
+        return health;
+    }
+
+    @Override
+    public UserRecord findLogin(String username) {
+        return users.findByUsername(username);
+    }
+
+    @Override
+    public int findUserIdByDisplayName(String displayName) {
+        return users.findIdByDisplayName(displayName);
+    }
+
+    @Override
+    public Integer findActiveStatus(String userId) {
+        Boolean active = users.isActive(parseId(userId));
+        return active == null ? null : active ? 1 : 0;
+    }
+
+    @Override
+    public void saveContact(String senderId, String receiverId) throws SQLException {
+        try {
+            users.addContact(parseId(senderId), parseId(receiverId));
+        } catch (IOException e) {
+            throw new SQLException("Could not write contact to the user journal", e);
+        }
+    }
+
+    @Override
+    public List<String> findContacts(String userId) {
+        List<String> contacts = new ArrayList<>();
+        for (int contactUserId : users.contactsOf(parseId(userId))) {
+            contacts.add(String.valueOf(contactUserId));
+        }
+        return contacts;
+    }
+
+    @Override
+    public Set<Integer> findContactIds(int userId) {
+        return users.linkedTo(userId);
+    }
+
+    @Override
+    public void saveActiveStatuses(List<PresenceChange> changes) throws SQLException {
+        try {
+            users.savePresence(changes);
+        } catch (IOException e) {
+            throw new SQLException("Could not write presence to the user journal", e);
+        }
+    }
+
+    @Override
+    public void saveMessages(List<ChatMessage> batch) throws SQLException {
+        try {
+            messages.append(batch);
+        } catch (IOException e) {
+            throw new SQLException("Could not append to the message log", e);
+        }
+    }
+
+    @Override
+    public long findMaxMessageId() {
+        return messages.maxMessageId();
+    }
+
+    @Override
+    public int streamMessagesAfter(long afterMessageId, int limit, Collection<Integer> chatRoomIds, HistoryRowHandler handler) throws SQLException {
+        try {
+            return stream(messages.after(afterMessageId, limit, wanted(chatRoomIds)), handler);
+        } catch (IOException e) {
+            throw new SQLException("Could not read the message log", e);
+        }
+    }
+
+    @Override
+    public int streamHistoryPage(long beforeMessageId, int limit, Collection<Integer> chatRoomIds, HistoryRowHandler handler) throws SQLException {
+        try {
+            return stream(messages.before(beforeMessageId, limit, wanted(chatRoomIds)), handler);
+        } catch (IOException e) {
+            throw new SQLException("Could not read the message log", e);
+        }
+    }
+
+    // Rows whose sender is unknown are left out, as the JOIN on users does in SQL. They are left
+    // out before the log counts its limit, so a page still holds limit rows when there are that many.
+    private Predicate<MessageLog.Entry> wanted(Collection<Integer> chatRoomIds) {
+        return entry -> chatRoomIds.contains(entry.chatRoomId) && users.findById(entry.userId) != null;
+    }
+
+    private int stream(List<MessageLog.Entry> entries, HistoryRowHandler handler) {
+        int rows = 0;
+        for (MessageLog.Entry entry : entries) {
+            UserRecord sender = users.findById(entry.userId);
+            if (sender != null) {
+                handler.row(entry.messageId, sender.displayName, entry.content);
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static int parseId(String userId) {
+        try {
+            return Integer.parseInt(userId);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package serverPackage;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Hashed timing wheel that closes connections which have sent nothing for timeoutMillis.
+// Activity is a single volatile write on the connection's handle; the wheel only looks at the
+// slot whose deadline has come up, and re-files a handle that saw activity since it was filed
+// under its new deadline. Each tick therefore costs the connections due in it, not all of them.
+public class IdleReaper {
+    public final class Handle {
+        private final Runnable onIdle;
+        private volatile long lastActivity = System.currentTimeMillis();
+        private volatile boolean cancelled = false;
+
+        private Handle(Runnable onIdle) {
+            this.onIdle = onIdle;
+        }
+
+        public void touch() {
+            lastActivity = System.currentTimeMillis();
+        }
+
+        public void cancel() {
+            cancelled = true; // Dropped from the wheel when its slot next comes up
+        }
+    }
+
+    private final long timeoutMillis;
+    private final long tickMillis;
+    private final List<ConcurrentLinkedQueue<Handle>> wheel;
+    private final AtomicLong reaped = new AtomicLong();
+    private volatile long currentTick;
+
+    public IdleReaper(long timeoutMillis, long tickMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.tickMillis = tickMillis;
+        int slots = (int) (timeoutMillis / tickMillis) + 2; // A deadline never wraps onto the slot being processed
+        this.wheel = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    // A timeout of 0 turns reaping off
+    public static IdleReaper fromSystemProperties() {
+        return new IdleReaper(Long.getLong("chat.heartbeat.idleTimeoutMs", 90_000L), 1000L);
+    }
+
+    public boolean isEnabled() {
+        return timeoutMillis > 0;
+    }
+
+    public void start(ScheduledExecutorService scheduler) {
+        if (isEnabled()) {
+            scheduler.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Handle register(Runnable onIdle) {
+        Handle handle = new Handle(onIdle);
+        if (isEnabled()) {
+            file(handle, handle.lastActivity + timeoutMillis);
+        }
+        return handle;
+    }
+
+    private void file(Handle handle, long deadline) {
+        long tick = Math.max(deadline / tickMillis, currentTick + 1);
+        wheel.get((int) (tick % wheel.size())).add(handle);
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        long target = now / tickMillis;
+        // Catch up on any ticks the scheduler ran late for
+        for (long tick = currentTick + 1; tick <= target; tick++) {
+            currentTick = tick;
+            ConcurrentLinkedQueue<Handle> slot = wheel.get((int) (tick % wheel.size()));
+            for (int n = slot.size(); n > 0; n--) { // Handles re-filed during this pass wait for their own tick
+                Handle handle = slot.poll();
+                if (handle == null) {
+                    break;
+                }
+                if (handle.cancelled) {
+                    continue;
+                }
+                long deadline = handle.lastActivity + timeoutMillis;
+                if (deadline <= now) {
+                    reaped.incrementAndGet();
+                    try {
+                        handle.onIdle.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                } else {
+                    file(handle, deadline);
+                }
+            }
+        }
+    }
+
+    public long reapedConnections() {
+        return reaped.get();
+    }
+}
@@ -0,0 +1,154 @@
+package serverPackage;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Server-side login stage. Credential checks run on a small bounded pool instead of the
+// connection threads, every password attempt spends a token from its IP's bucket, and every failed attempt
+// spends one from the username's bucket, so password guessing slows down without locking the
+// real user out for good. While the database answers slowly the queue admits proportionally
+// fewer logins; the rest are told to retry, so a reconnect storm degrades instead of piling up.
+public class LoginGate {
+    public enum Decision {
+        ADMITTED,
+        RATE_LIMITED, // This IP or username has used up its attempts for now
+        BUSY          // Login queue is full, or shrunk because the database is slow
+    }
+
+    private final ThreadPoolExecutor workers;
+    private final int queueCapacity;
+    private final double ipCapacity;
+    private final double ipRefillPerSecond;
+    private final double userCapacity;
+    private final double userRefillPerSecond;
+    private final long targetLatencyNanos;
+    private final ConcurrentHashMap<String, TokenBucket> ipBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+    private volatile double averageLatencyNanos = 0; // Exponentially weighted, updated by the workers
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong busy = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+
+    public LoginGate(int workerCount, int queueCapacity, double ipCapacity, double ipRefillPerSecond,
+                     double userCapacity, double userRefillPerSecond, long targetLatencyMillis) {
+        this.queueCapacity = queueCapacity;
+        this.ipCapacity = ipCapacity;
+        this.ipRefillPerSecond = ipRefillPerSecond;
+        this.userCapacity = userCapacity;
+        this.userRefillPerSecond = userRefillPerSecond;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "login-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // Defaults: 10 attempts per IP refilling at 1/s, 5 failures per username refilling at 1 per 12 s
+    public static LoginGate fromSystemProperties() {
+        return new LoginGate(
+                Integer.getInteger("chat.login.workers", 4),
+                Integer.getInteger("chat.login.queueCapacity", 256),
+                Integer.getInteger("chat.login.ipBurst", 10),
+                Double.parseDouble(System.getProperty("chat.login.ipPerSecond", "1")),
+                Integer.getInteger("chat.login.userFailures", 5),
+                Double.parseDouble(System.getProperty("chat.login.userFailuresPerSecond", "0.0833")),
+                Long.getLong("chat.login.targetLatencyMs", 200L));
+    }
+
+    // Drops buckets that have refilled completely so one-off IPs do not accumulate
+    public void start(ScheduledExecutorService scheduler) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            ipBuckets.values().removeIf(TokenBucket::isFull);
+            userBuckets.values().removeIf(TokenBucket::isFull);
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public Decision submit(String ip, String username, Runnable login) {
+        TokenBucket userBucket = userBuckets.get(username);
+        if (userBucket != null && !userBucket.hasToken()) {
+            rateLimited.incrementAndGet();
+            return Decision.RATE_LIMITED;
+        }
+        if (!ipBuckets.computeIfAbsent(ip, key -> new TokenBucket(ipCapacity, ipRefillPerSecond)).tryTake()) {
+            rateLimited.incrementAndGet();
+            return Decision.RATE_LIMITED;
+        }
+        return admit(login);
+    }
+
+    // A RESUME's session token already proves who the user is, so it spends no IP token: after a
+    // node restart every client behind one NAT resumes at once, and rate limiting them would only
+    // push them into full logins. The queue still bounds how many run.
+    public Decision submitResume(Runnable resume) {
+        return admit(resume);
+    }
+
+    private Decision admit(Runnable login) {
+        if (workers.getQueue().size() >= admissionLimit()) {
+            busy.incrementAndGet();
+            return Decision.BUSY;
+        }
+        try {
+            workers.execute(login);
+        } catch (RejectedExecutionException e) {
+            busy.incrementAndGet();
+            return Decision.BUSY;
+        }
+        admitted.incrementAndGet();
+        return Decision.ADMITTED;
+    }
+
+    // Full queue while the database keeps up; shrinks in proportion as its latency passes the target
+    private int admissionLimit() {
+        double latency = averageLatencyNanos;
+        if (latency <= targetLatencyNanos) {
+            return queueCapacity;
+        }
+        return (int) Math.max(workers.getCorePoolSize(), queueCapacity * (targetLatencyNanos / latency));
+    }
+
+    public void recordLatency(long nanos) {
+        double previous = averageLatencyNanos;
+        averageLatencyNanos = previous == 0 ? nanos : previous * 0.8 + nanos * 0.2; // Racy updates only blur the average
+    }
+
+    public void recordFailure(String username) {
+        failedAttempts.incrementAndGet();
+        userBuckets.computeIfAbsent(username, key -> new TokenBucket(userCapacity, userRefillPerSecond)).tryTake();
+    }
+
+    public long admitted() {
+        return admitted.get();
+    }
+
+    public long rateLimited() {
+        return rateLimited.get();
+    }
+
+    public long busy() {
+        return busy.get();
+    }
+
+    public long failedAttempts() {
+        return failedAttempts.get();
+    }
+
+    public int queued() {
+        return workers.getQueue().size();
+    }
+
+    public long averageLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((long) averageLatencyNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "admitted=" + admitted() + " rateLimited=" + rateLimited() + " busy=" + busy() + " failed=" + failedAttempts()
+                + " queued=" + queued() + "/" + admissionLimit() + " avgDbLatencyMs=" + averageLatencyMillis();
+    }
+}
@@ -0,0 +1,99 @@
+package serverPackage;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// In-process ClusterBus: every bus that joined the same group in this JVM receives the others'
+// events. Each member gets its own delivery thread, so events reach it asynchronously and in
+// publish order, as they would over the network. ChatServer runs one node per JVM, so a server
+// started with -Dchat.cluster.bus=loopback is the only member of its group; other members are
+// listeners a test harness joins alongside it, to watch and drive the cluster traffic on one box.
+public class LoopbackBus implements ClusterBus {
+    private static final ConcurrentHashMap<String, List<LoopbackBus>> GROUPS = new ConcurrentHashMap<>();
+
+    private final String group;
+    private final int nodeId;
+    private final int nodeCount;
+    private final ExecutorService delivery;
+    private volatile Listener listener;
+
+    private LoopbackBus(String group, int nodeId, int nodeCount) {
+        if (nodeId < 0 || nodeId >= nodeCount) {
+            throw new IllegalArgumentException("Node id " + nodeId + " outside a cluster of " + nodeCount);
+        }
+        this.group = group;
+        this.nodeId = nodeId;
+        this.nodeCount = nodeCount;
+        this.delivery = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "loopback-bus-" + group + "-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static LoopbackBus join(String group, int nodeId, int nodeCount) {
+        return new LoopbackBus(group, nodeId, nodeCount);
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        List<LoopbackBus> members = GROUPS.computeIfAbsent(group, name -> new CopyOnWriteArrayList<>());
+        synchronized (members) { // Joins and leaves only; publish reads the list without locking
+            for (LoopbackBus member : members) {
+                if (member.nodeId == nodeId) {
+                    throw new IllegalStateException("Node " + nodeId + " already joined loopback group " + group);
+                }
+            }
+            // Both sides see the other connect: each receives the other's snapshot first
+            for (LoopbackBus member : members) {
+                member.deliver(listener.snapshot());
+                deliver(member.listener.snapshot());
+            }
+            members.add(this);
+        }
+    }
+
+    @Override
+    public void publish(ClusterEvent event) {
+        for (LoopbackBus member : GROUPS.getOrDefault(group, Collections.emptyList())) {
+            if (member != this) {
+                member.deliver(Collections.singletonList(event));
+            }
+        }
+    }
+
+    // Runs the events through this member's listener on its delivery thread
+    private void deliver(List<ClusterEvent> events) {
+        delivery.execute(() -> {
+            for (ClusterEvent event : events) {
+                listener.onEvent(event);
+            }
+        });
+    }
+
+    @Override
+    public int nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public void close() {
+        List<LoopbackBus> members = GROUPS.get(group);
+        if (members != null) {
+            synchronized (members) {
+                if (members.remove(this)) {
+                    for (LoopbackBus member : members) {
+                        member.delivery.execute(() -> member.listener.onNodeDown(nodeId));
+                    }
+                }
+            }
+        }
+        delivery.shutdown();
+    }
+}
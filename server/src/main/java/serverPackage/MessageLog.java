@@ -0,0 +1,322 @@
+package serverPackage;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.*;
+import java.util.function.Predicate;
+
+// Append-only message log of the embedded store. A batch is written with one sequential write
+// and one force, into segment files named after the first id they may hold; a new segment is
+// started once the current one passes segmentBytes. Reads of a finished segment go through a
+// read-only memory map of it, made once; reads of the segment being appended to, which would
+// need a new map after every batch, are positional reads on a channel of its own.
+//
+// An index from message id to file position is kept in memory, sorted by id, and rebuilt by
+// one sequential scan when the log is opened; a torn record at the end (a crash mid-write) is
+// cut off then. Ids normally arrive in order, so inserting into the index is an append.
+//
+// Record: <int length><long messageId><long timestamp><int userId><int chatRoomId><UTF-8 content>
+// <int length>, length counting everything between the two copies.
+public class MessageLog {
+    private static final int HEADER = 4 + 8 + 8 + 4 + 4;
+    private static final int FIXED = 8 + 8 + 4 + 4; // Part of length that is not content
+
+    public static final class Entry {
+        public final long messageId;
+        public final long timestamp;
+        public final int userId;
+        public final int chatRoomId;
+        public final String content;
+
+        Entry(long messageId, long timestamp, int userId, int chatRoomId, String content) {
+            this.messageId = messageId;
+            this.timestamp = timestamp;
+            this.userId = userId;
+            this.chatRoomId = chatRoomId;
+            this.content = content;
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        long length;
+        volatile MappedByteBuffer map; // Made on the first read once the segment is finished
+
+        Segment(File file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    private final File directory;
+    private final long segmentBytes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Segment> segments = new ArrayList<>();
+    private FileChannel appender;
+    private FileChannel tail; // Reads the segment appender writes to
+    // ids[i] is stored at positions[i], which is segment index << 32 | offset
+    private long[] ids = new long[1024];
+    private long[] positions = new long[1024];
+    private int count = 0;
+
+    public MessageLog(File directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create message log directory " + directory);
+        }
+        open();
+    }
+
+    // Writes the messages in one go and forces them to disk. A message without an id gets the
+    // next one; a message whose id is already stored (a repeated replay) is skipped.
+    public void append(List<ChatMessage> messages) throws IOException {
+        lock.writeLock().lock();
+        try {
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.length >= segmentBytes) {
+                segment = startSegment();
+            }
+            long segmentBase = (long) (segments.size() - 1) << 32;
+            ByteArrayOutputStream batch = new ByteArrayOutputStream(messages.size() * 64);
+            DataOutputStream out = new DataOutputStream(batch);
+            List<long[]> written = new ArrayList<>(messages.size()); // {messageId, position}
+            Set<Long> inBatch = new HashSet<>();
+            long next = maxMessageId();
+            for (ChatMessage message : messages) {
+                long messageId = message.messageId == -1 ? next + 1 : message.messageId;
+                next = Math.max(next, messageId);
+                if (contains(messageId) || !inBatch.add(messageId)) {
+                    continue;
+                }
+                written.add(new long[] {messageId, segmentBase | (segment.length + batch.size())});
+                byte[] content = message.content.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(FIXED + content.length);
+                out.writeLong(messageId);
+                out.writeLong(message.timestamp);
+                out.writeInt(message.userId);
+                out.writeInt(message.chatRoomId);
+                out.write(content);
+                out.writeInt(FIXED + content.length);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+            try {
+                while (buffer.hasRemaining()) {
+                    appender.write(buffer);
+                }
+                appender.force(false);
+            } catch (IOException e) {
+                // Cut off whatever part of the batch made it, so the next append starts on a record boundary
+                try {
+                    appender.truncate(segment.length);
+                } catch (IOException truncateFailure) {
+                    e.addSuppressed(truncateFailure);
+                }
+                throw e;
+            }
+            segment.length += buffer.limit();
+            // Indexed only once on disk, so a failed write leaves nothing pointing at it
+            for (long[] record : written) {
+                insert(record[0], record[1]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long maxMessageId() {
+        lock.readLock().lock();
+        try {
+            return count == 0 ? 0 : ids[count - 1];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Up to limit wanted messages newer than afterMessageId, oldest first
+    public List<Entry> after(long afterMessageId, int limit, Predicate<Entry> wanted) throws IOException {
+        lock.readLock().lock();
+        try {
+            List<Entry> entries = new ArrayList<>();
+            for (int i = search(afterMessageId + 1); i < count && entries.size() < limit; i++) {
+                Entry entry = read(positions[i]);
+                if (wanted.test(entry)) {
+                    entries.add(entry);
+                }
+            }
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The newest limit wanted messages older than beforeMessageId, oldest first. Walks back from
+    // the newest, so a page of a quiet room costs as many reads as the messages since its last one.
+    public List<Entry> before(long beforeMessageId, int limit, Predicate<Entry> wanted) throws IOException {
+        lock.readLock().lock();
+        try {
+            List<Entry> entries = new ArrayList<>();
+            for (int i = search(beforeMessageId) - 1; i >= 0 && entries.size() < limit; i--) {
+                Entry entry = read(positions[i]);
+                if (wanted.test(entry)) {
+                    entries.add(entry);
+                }
+            }
+            Collections.reverse(entries);
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Entry read(long position) throws IOException {
+        int index = (int) (position >>> 32);
+        int offset = (int) position;
+        if (index == segments.size() - 1) {
+            ByteBuffer length = readFully(ByteBuffer.allocate(4), offset);
+            return decode(readFully(ByteBuffer.allocate(HEADER + length.getInt(0) - FIXED), offset), 0);
+        }
+        return decode(mapped(segments.get(index)), offset);
+    }
+
+    // Absolute gets only, so readers can share a mapped buffer
+    private static Entry decode(ByteBuffer buffer, int offset) {
+        int length = buffer.getInt(offset);
+        byte[] content = new byte[length - FIXED];
+        buffer.get(offset + HEADER, content);
+        return new Entry(buffer.getLong(offset + 4), buffer.getLong(offset + 12), buffer.getInt(offset + 20), buffer.getInt(offset + 24),
+                new String(content, StandardCharsets.UTF_8));
+    }
+
+    // Positional reads leave the channel's position alone, so readers can share it too
+    private ByteBuffer readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (tail.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Message log " + segments.get(segments.size() - 1).file + " ends inside a record");
+            }
+        }
+        return buffer;
+    }
+
+    // A finished segment no longer changes, so it is mapped once at its final length
+    private ByteBuffer mapped(Segment segment) throws IOException {
+        MappedByteBuffer map = segment.map;
+        if (map == null) {
+            try (FileChannel channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ)) {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.length);
+            }
+            segment.map = map; // Two readers may both map it; either result is fine
+        }
+        return map;
+    }
+
+    // First index whose id is >= messageId
+    private int search(long messageId) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ids[middle] < messageId) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean contains(long messageId) {
+        int at = search(messageId);
+        return at < count && ids[at] == messageId;
+    }
+
+    // Returns false if the id is already indexed
+    private boolean insert(long messageId, long position) {
+        int at = count > 0 && ids[count - 1] < messageId ? count : search(messageId);
+        if (at < count && ids[at] == messageId) {
+            return false;
+        }
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+            positions = Arrays.copyOf(positions, count * 2);
+        }
+        System.arraycopy(ids, at, ids, at + 1, count - at);
+        System.arraycopy(positions, at, positions, at + 1, count - at);
+        ids[at] = messageId;
+        positions[at] = position;
+        count++;
+        return true;
+    }
+
+    private void open() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("messages-") && name.endsWith(".log"));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files); // Names are zero-padded ids, so this is log order
+        for (File file : files) {
+            Segment segment = new Segment(file, 0);
+            segments.add(segment);
+            scan(segment, segments.size() - 1);
+        }
+        if (!segments.isEmpty()) {
+            appender = FileChannel.open(segments.get(segments.size() - 1).file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            tail = FileChannel.open(segments.get(segments.size() - 1).file.toPath(), StandardOpenOption.READ);
+        }
+    }
+
+    // Indexes every complete record and cuts the file after the last one
+    private void scan(Segment segment, int segmentIndex) throws IOException {
+        long size = segment.file.length();
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file), 1 << 16))) {
+            while (offset + HEADER + 4 <= size) {
+                int length = in.readInt();
+                if (length < FIXED || offset + 8 + length > size) {
+                    break;
+                }
+                long messageId = in.readLong();
+                in.skipNBytes(length - 8);
+                if (in.readInt() != length) {
+                    break;
+                }
+                insert(messageId, (long) segmentIndex << 32 | offset);
+                offset += 8 + length;
+            }
+        }
+        segment.length = offset;
+        if (offset < size) {
+            System.out.println("Message log " + segment.file + " ends with a partial record, cutting it at " + offset);
+            try (FileChannel channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(offset);
+            }
+        }
+    }
+
+    // Named after the next id to assign, so names sort in log order
+    private Segment startSegment() throws IOException {
+        if (appender != null) {
+            appender.close();
+            tail.close();
+        }
+        Segment segment = new Segment(new File(directory, String.format("messages-%020d.log", maxMessageId() + 1)), 0);
+        appender = FileChannel.open(segment.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segment.length = appender.size();
+        tail = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ);
+        segments.add(segment);
+        return segment;
+    }
+}
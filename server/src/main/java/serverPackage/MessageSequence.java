@@ -0,0 +1,72 @@
+package serverPackage;
+
+import java.sql.*;
+import java.util.concurrent.atomic.*;
+
+// Hands out chats.message_id values when a message is accepted, so a live chat line can carry
+// the same id it will have in the table and a client can resume from the last one it saw.
+// Seeded from MAX(message_id); until that has been read (the database was down at startup)
+// messages get -1, and the write-behind numbers them from the sequence once it is seeded rather
+// than leaving them to the table, whose auto-increment would not respect the sequence.
+//
+// In a cluster of n nodes, node k only hands out ids that are k modulo n, so nodes never collide
+// without asking each other. Ids seen from other nodes move the sequence forward, which keeps
+// the ids of all nodes roughly in the order the messages were sent.
+public class MessageSequence {
+    private final ChatStore repository;
+    private final int stride;
+    private final int offset;
+    private final AtomicLong last = new AtomicLong(-1);
+
+    public MessageSequence(ChatStore repository) {
+        this(repository, 1, 0);
+    }
+
+    public MessageSequence(ChatStore repository, int nodeCount, int nodeId) {
+        this.repository = repository;
+        this.stride = nodeCount;
+        this.offset = nodeId;
+    }
+
+    // Safe to call repeatedly; only the first successful read takes effect
+    public void seed() {
+        if (last.get() >= 0) {
+            return;
+        }
+        try {
+            long max = repository.findMaxMessageId();
+            if (last.compareAndSet(-1, max)) {
+                System.out.println("Message ids continue after " + max);
+            }
+        } catch (SQLException e) {
+            System.out.println("Message ids not seeded yet: " + e.getMessage());
+        }
+    }
+
+    public long next() {
+        while (true) {
+            long current = last.get();
+            if (current < 0) {
+                return -1;
+            }
+            long next = current + 1 + Math.floorMod(offset - (current + 1), stride); // Next id that is ours
+            if (last.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    // An id assigned elsewhere in the cluster; ours continue after it. No-op until seeded.
+    public void observe(long messageId) {
+        while (true) {
+            long current = last.get();
+            if (current < 0 || messageId <= current || last.compareAndSet(current, messageId)) {
+                return;
+            }
+        }
+    }
+
+    public long current() {
+        return last.get();
+    }
+}
@@ -0,0 +1,465 @@
+package serverPackage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Takes chat messages off the socket threads and writes them to the chats table in JDBC batches.
+// A batch is flushed when it reaches batchSize or when flushIntervalMillis has passed since its
+// first message. While the database is down (the health breaker is open), batches go straight to
+// an append-only spill file that is replayed, in order, before new messages once it is back.
+// Replay records its progress in an offset file after each batch and deletes the spill file once
+// it has caught up. A batch the database refuses while healthy, live or replayed, is moved to a
+// quarantine file, so one bad row cannot stall persistence and nothing accepted is silently lost.
+public class MessageWriteBehind {
+    private static final int SPILL_FORMAT_V2 = 0x43535032; // "CSP2": records carry a message id
+    private final ChatStore repository;
+    private final UserDirectory users;
+    private final MessageSequence messageIds;
+    private final DatabaseHealth health;
+    private final BlockingQueue<ChatMessage> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long offerTimeoutMillis;
+    private final File spillFile;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong flushedMessages = new AtomicLong();
+    private final AtomicLong flushedBatches = new AtomicLong();
+    private final AtomicLong spilledMessages = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong backpressureWaits = new AtomicLong();
+    private volatile int lastBatchSize = 0;
+    private volatile long lastFlushNanos = 0;
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private volatile long maxFlushNanos = 0;
+
+    public MessageWriteBehind(ChatStore repository, UserDirectory users, MessageSequence messageIds, DatabaseHealth health,
+                              int capacity, int batchSize, long flushIntervalMillis, long offerTimeoutMillis, File spillFile) {
+        this.repository = repository;
+        this.users = users;
+        this.messageIds = messageIds;
+        this.health = health;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.spillFile = spillFile;
+        this.flusher = new Thread(this::flushLoop, "chat-write-behind");
+        this.flusher.setDaemon(true);
+    }
+
+    public static MessageWriteBehind fromSystemProperties(ChatStore repository, UserDirectory users, MessageSequence messageIds) {
+        return new MessageWriteBehind(repository, users, messageIds, repository.health(),
+                Integer.getInteger("chat.persist.queueCapacity", 10_000),
+                Integer.getInteger("chat.persist.batchSize", 200),
+                Long.getLong("chat.persist.flushIntervalMs", 50L),
+                Long.getLong("chat.persist.offerTimeoutMs", 100L),
+                new File(System.getProperty("chat.persist.spillFile", "chat-spill.bin")));
+    }
+
+    public void start() {
+        flusher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "chat-write-behind-shutdown"));
+    }
+
+    // Returns immediately while there is room. When the buffer is full the caller is held for up to
+    // offerTimeoutMillis (backpressure on the sending client), after which the message is spilled
+    // straight to disk rather than lost.
+    public void submit(ChatMessage message) {
+        accepted.incrementAndGet();
+        if (queue.offer(message)) {
+            return;
+        }
+        backpressureWaits.incrementAndGet();
+        try {
+            if (queue.offer(message, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spill(Collections.singletonList(message));
+    }
+
+    private void flushLoop() {
+        List<ChatMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                ChatMessage first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    replaySpillIfPossible();
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    ChatMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // Never let the flusher die
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<ChatMessage> batch) {
+        if (!health.isAvailable()) {
+            spill(batch); // Fail fast: no point waiting on a connection the breaker knows is dead
+            return;
+        }
+        if (spillFile.exists()) {
+            replaySpillIfPossible(); // Older spilled messages go in before this batch
+            if (spillFile.exists()) {
+                spill(batch); // Still down: queue up behind them to keep the order
+                return;
+            }
+        }
+        if (!write(batch)) {
+            spill(batch); // Went down mid-flush, keep the batch for replay
+        }
+    }
+
+    // Saves a batch. True once it is in the database, or quarantined because the database refused it
+    // while healthy; false while the database is unavailable, in which case the caller keeps the batch.
+    private boolean write(List<ChatMessage> batch) {
+        List<ChatMessage> numbered = assignMissingIds(batch);
+        if (numbered == null) {
+            return false; // Cannot be numbered until the sequence is seeded, which needs the database
+        }
+        long start = System.nanoTime();
+        try {
+            repository.saveMessages(resolveUserIds(numbered));
+            recordFlush(batch.size(), System.nanoTime() - start);
+            return true;
+        } catch (SQLException e) {
+            if (!health.isAvailable() || !health.probe()) {
+                return false;
+            }
+            quarantine(batch, e); // The database is up but refuses these rows; they must not hold up the rest
+            return true;
+        }
+    }
+
+    // Messages accepted before the sequence was seeded carry -1. Letting the table number them could
+    // hand out ids the sequence, or another node's stripe, gives out later, so they take the next
+    // sequence ids here instead. Returns null while the sequence cannot be seeded.
+    private List<ChatMessage> assignMissingIds(List<ChatMessage> batch) {
+        boolean missing = false;
+        for (ChatMessage message : batch) {
+            missing |= message.messageId == -1;
+        }
+        if (!missing) {
+            return batch;
+        }
+        messageIds.seed();
+        if (messageIds.current() < 0) {
+            return null;
+        }
+        List<ChatMessage> numbered = new ArrayList<>(batch.size());
+        for (ChatMessage message : batch) {
+            numbered.add(message.messageId != -1 ? message
+                    : new ChatMessage(messageIds.next(), message.userId, message.displayName, message.content, message.chatRoomId, message.timestamp));
+        }
+        return numbered;
+    }
+
+    // Senders are identified by display name on the wire; the user directory answers most of them,
+    // and a name it does not know is loaded from the database once per batch
+    private List<ChatMessage> resolveUserIds(List<ChatMessage> batch) throws SQLException {
+        List<ChatMessage> resolved = new ArrayList<>(batch.size());
+        Map<String, Integer> userIds = new HashMap<>();
+        for (ChatMessage message : batch) {
+            int userId = message.userId;
+            if (userId == -1) {
+                Integer known = userIds.get(message.displayName);
+                if (known == null) {
+                    known = users.userIdByDisplayName(message.displayName);
+                    userIds.put(message.displayName, known);
+                }
+                userId = known;
+            }
+            if (userId == -1) {
+                droppedMessages.incrementAndGet();
+                System.out.println("Dropping message from unknown display name " + message.displayName);
+                continue;
+            }
+            resolved.add(userId == message.userId ? message
+                    : new ChatMessage(message.messageId, userId, message.displayName, message.content, message.chatRoomId, message.timestamp));
+        }
+        return resolved;
+    }
+
+    private void recordFlush(int size, long nanos) {
+        flushedBatches.incrementAndGet();
+        flushedMessages.addAndGet(size);
+        lastBatchSize = size;
+        lastFlushNanos = nanos;
+        totalFlushNanos.addAndGet(nanos);
+        if (nanos > maxFlushNanos) {
+            maxFlushNanos = nanos; // Only the flusher thread writes this
+        }
+    }
+
+    private synchronized void spill(List<ChatMessage> messages) {
+        try {
+            if (spillFile.length() == 0) {
+                offsetFile().delete(); // Left by a crash after the last spill file was replayed
+            }
+            appendRecords(spillFile, messages);
+            spilledMessages.addAndGet(messages.size());
+        } catch (IOException e) {
+            droppedMessages.addAndGet(messages.size());
+            e.printStackTrace();
+        }
+    }
+
+    private static void appendRecords(File target, List<ChatMessage> messages) throws IOException {
+        boolean newFile = target.length() == 0;
+        try (FileOutputStream file = new FileOutputStream(target, true);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(file))) {
+            if (newFile) {
+                data.writeInt(SPILL_FORMAT_V2);
+            }
+            for (ChatMessage message : messages) {
+                data.writeLong(message.messageId);
+                data.writeLong(message.timestamp);
+                data.writeInt(message.userId);
+                data.writeInt(message.chatRoomId);
+                writeString(data, message.displayName);
+                writeString(data, message.content);
+            }
+            data.flush();
+            file.getFD().sync(); // The database is not there to hold these, so the disk has to
+        }
+    }
+
+    // Runs on the flusher thread only. The spill lock is held just to read the file's length and to
+    // delete it once replay has caught up, so submit() can keep spilling while batches are written.
+    private void replaySpillIfPossible() {
+        if (!spillFile.exists() || !health.isAvailable()) {
+            return;
+        }
+        long offset = readOffset();
+        while (true) {
+            long end;
+            synchronized (this) {
+                end = spillFile.length();
+                if (offset >= end) {
+                    deleteSpill(); // Caught up, and spill() cannot append while this lock is held
+                    return;
+                }
+            }
+            offset = replayRange(offset, end);
+            if (offset < end) {
+                return; // The database went away again; the offset file says where to pick up
+            }
+        }
+    }
+
+    // Writes the records in [from, end) in batches, recording the offset after each one so a later
+    // replay, even after a restart, never inserts a batch again. Returns where it stopped.
+    private long replayRange(long from, long end) {
+        long position = from;
+        int replayed = 0;
+        try (FileInputStream file = new FileInputStream(spillFile)) {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(4);
+            // Files written before message ids existed have no header; their records start with the timestamp
+            boolean hasIds = channel.read(header, 0) == 4 && header.getInt(0) == SPILL_FORMAT_V2;
+            position = Math.max(position, hasIds ? 4 : 0);
+            channel.position(position);
+            DataInputStream data = new DataInputStream(new BufferedInputStream(file));
+
+            List<ChatMessage> batch = new ArrayList<>(batchSize);
+            long batchEnd = position;
+            boolean damaged = false;
+            while (position < end) {
+                batch.clear();
+                while (batch.size() < batchSize && batchEnd < end && !damaged) {
+                    try {
+                        long messageId = hasIds ? data.readLong() : -1;
+                        long timestamp = data.readLong();
+                        int userId = data.readInt();
+                        int chatRoomId = data.readInt();
+                        byte[] displayName = readBytes(data, end - batchEnd);
+                        byte[] content = readBytes(data, end - batchEnd);
+                        long size = (hasIds ? 8 : 0) + 24 + displayName.length + content.length;
+                        if (batchEnd + size > end) {
+                            throw new EOFException();
+                        }
+                        batch.add(new ChatMessage(messageId, userId, new String(displayName, StandardCharsets.UTF_8),
+                                new String(content, StandardCharsets.UTF_8), chatRoomId, timestamp));
+                        batchEnd += size;
+                    } catch (IOException e) {
+                        System.out.println("Spill file has a partial record at byte " + batchEnd + ", replaying the complete ones");
+                        damaged = true;
+                    }
+                }
+                if (!batch.isEmpty() && !write(batch)) {
+                    System.out.println("Spill replay stopped after " + replayed + " messages, the database is down again");
+                    return position;
+                }
+                replayed += batch.size();
+                position = damaged ? end : batchEnd; // Nothing after a damaged record can be read back
+                saveOffset(position);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return position;
+        }
+        System.out.println("Replayed " + replayed + " spilled messages into the database");
+        return position;
+    }
+
+    // <spillFile>.offset holds how far replay got; written in place, one long, after every batch
+    private File offsetFile() {
+        return new File(spillFile.getPath() + ".offset");
+    }
+
+    private long readOffset() {
+        File offsetFile = offsetFile();
+        if (!offsetFile.exists()) {
+            return 0;
+        }
+        try (DataInputStream data = new DataInputStream(new FileInputStream(offsetFile))) {
+            long offset = data.readLong();
+            return offset <= spillFile.length() ? offset : 0; // Beyond the end: left over from an older file
+        } catch (IOException e) {
+            return 0; // Ids make replaying a batch twice harmless for the rows that have them
+        }
+    }
+
+    private void saveOffset(long offset) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(offsetFile(), "rw")) {
+            file.writeLong(offset);
+            file.getFD().sync();
+        }
+    }
+
+    // Spill file first: an offset file without one is ignored, the other way round would replay it all
+    private void deleteSpill() {
+        if (!spillFile.delete() && spillFile.exists()) {
+            System.out.println("Could not delete replayed spill file " + spillFile);
+            return;
+        }
+        offsetFile().delete();
+    }
+
+    // Sets a batch aside in <spillFile>.quarantine, in the spill format, and counts it as dropped
+    private void quarantine(List<ChatMessage> batch, SQLException cause) {
+        File quarantineFile = new File(spillFile.getPath() + ".quarantine");
+        droppedMessages.addAndGet(batch.size());
+        System.out.println("Moving " + batch.size() + " messages the database refused to " + quarantineFile
+                + ": " + cause.getMessage());
+        try {
+            appendRecords(quarantineFile, batch);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    // A length beyond what is left of the file means a damaged record, not a huge string
+    private static byte[] readBytes(DataInputStream data, long available) throws IOException {
+        int length = data.readInt();
+        if (length < 0 || length > available) {
+            throw new IOException("Damaged spill record");
+        }
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return bytes;
+    }
+
+    public void close() {
+        running = false;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10)); // Drain what is queued before the JVM exits
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public long acceptedMessages() {
+        return accepted.get();
+    }
+
+    public long flushedMessages() {
+        return flushedMessages.get();
+    }
+
+    public long flushedBatches() {
+        return flushedBatches.get();
+    }
+
+    public long spilledMessages() {
+        return spilledMessages.get();
+    }
+
+    public long droppedMessages() {
+        return droppedMessages.get();
+    }
+
+    public long backpressureWaits() {
+        return backpressureWaits.get();
+    }
+
+    public int lastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public double averageBatchSize() {
+        long batches = flushedBatches.get();
+        return batches == 0 ? 0 : flushedMessages.get() / (double) batches;
+    }
+
+    public long lastFlushMicros() {
+        return lastFlushNanos / 1000;
+    }
+
+    public long maxFlushMicros() {
+        return maxFlushNanos / 1000;
+    }
+
+    public long averageFlushMicros() {
+        long batches = flushedBatches.get();
+        return batches == 0 ? 0 : totalFlushNanos.get() / batches / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return "queueDepth=" + queueDepth() + " accepted=" + acceptedMessages() + " flushed=" + flushedMessages()
+                + " batches=" + flushedBatches() + " avgBatch=" + String.format("%.1f", averageBatchSize())
+                + " lastBatch=" + lastBatchSize() + " avgFlushUs=" + averageFlushMicros() + " maxFlushUs=" + maxFlushMicros()
+                + " spilled=" + spilledMessages() + " dropped=" + droppedMessages() + " backpressureWaits=" + backpressureWaits();
+    }
+}
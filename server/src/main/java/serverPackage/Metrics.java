@@ -0,0 +1,300 @@
+package serverPackage;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+// Counters, gauges and latency histograms for the whole server, readable over JMX
+// (serverPackage:type=ChatMetrics) and as plain text at http://127.0.0.1:<chat.metrics.port>/metrics
+// in the Prometheus exposition format.
+//
+// Recording never takes a lock: counters are LongAdders and a histogram is a fixed array of
+// power-of-two microsecond buckets in an AtomicLongArray, so broadcast and the socket threads
+// only pay for an uncontended add. Metrics are created once at startup and held in fields;
+// everything that walks the registry (scrapes, JMX, rates) runs off the hot path.
+public class Metrics {
+    private static final int BUCKETS = 26; // <= 1 us, <= 2 us, ... <= 2^24 us (~17 s), then +Inf
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+        private volatile double perSecond = 0;
+        private long lastValue = 0; // Only the rate sampler touches this
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long value() {
+            return value.sum();
+        }
+
+        public double perSecond() {
+            return perSecond;
+        }
+    }
+
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+
+        public void recordNanos(long nanos) {
+            long micros = Math.max(0, nanos) / 1000;
+            // Smallest bucket whose bound 2^i us is >= micros
+            int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+            buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        public void recordSince(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        // Upper bound of the bucket holding the given quantile, in milliseconds
+        public double quantileMillis(double quantile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (total > 0 && seen >= rank) {
+                    return i == BUCKETS - 1 ? Double.POSITIVE_INFINITY : (1L << i) / 1000.0;
+                }
+            }
+            return 0;
+        }
+
+        public double meanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : sumNanos.sum() / 1e6 / n;
+        }
+    }
+
+    // One series: a metric name plus its labels, e.g. chat_store_seconds{method="findLogin"}
+    private static final class Series {
+        final String name;
+        final String labels; // Empty, or key="value" pairs without the braces
+        final String help;
+        final Object metric; // Counter, Histogram or LongSupplier
+
+        Series(String name, String labels, String help, Object metric) {
+            this.name = name;
+            this.labels = labels;
+            this.help = help;
+            this.metric = metric;
+        }
+
+        String key() {
+            return labels.isEmpty() ? name : name + "{" + labels + "}";
+        }
+    }
+
+    private final List<Series> series = new CopyOnWriteArrayList<>();
+    private volatile long lastRateSample = System.nanoTime();
+
+    public Counter counter(String name, String help) {
+        return counter(name, "", help);
+    }
+
+    public Counter counter(String name, String labels, String help) {
+        return register(name, labels, help, new Counter());
+    }
+
+    public Histogram histogram(String name, String help) {
+        return histogram(name, "", help);
+    }
+
+    public Histogram histogram(String name, String labels, String help) {
+        return register(name, labels, help, new Histogram());
+    }
+
+    // Read only when scraped, so it may walk a collection
+    public void gauge(String name, String help, LongSupplier value) {
+        register(name, "", help, value);
+    }
+
+    private <T> T register(String name, String labels, String help, T metric) {
+        series.add(new Series(name, labels, help, metric));
+        return metric;
+    }
+
+    // Scrape endpoint on the loopback interface (-Dchat.metrics.port, 0 turns it off), the JMX
+    // bean, and the per-second rates of the counters every chat.metrics.rateSeconds
+    public void start(ScheduledExecutorService scheduler) {
+        long period = Long.getLong("chat.metrics.rateSeconds", 10L);
+        scheduler.scheduleAtFixedRate(this::sampleRates, period, period, TimeUnit.SECONDS);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName("serverPackage:type=ChatMetrics"));
+        } catch (JMException e) {
+            System.out.println("Metrics not registered with JMX: " + e.getMessage());
+        }
+        int port = Integer.getInteger("chat.metrics.port", 9404);
+        if (port == 0) {
+            return;
+        }
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-http");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            server.start();
+            System.out.println("Metrics at http://" + server.getAddress().getHostString() + ":" + port + "/metrics");
+        } catch (IOException e) {
+            System.out.println("Metrics endpoint not started on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private void sampleRates() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRateSample) / 1e9;
+        lastRateSample = now;
+        for (Series each : series) {
+            if (each.metric instanceof Counter) {
+                Counter counter = (Counter) each.metric;
+                long value = counter.value();
+                counter.perSecond = (value - counter.lastValue) / seconds;
+                counter.lastValue = value;
+            }
+        }
+    }
+
+    // Prometheus text format: counters get _total, histograms _bucket/_sum/_count in seconds
+    public String scrape() {
+        StringBuilder text = new StringBuilder(4096);
+        Set<String> described = new HashSet<>();
+        for (Series each : series) {
+            String type = each.metric instanceof Counter ? "counter" : each.metric instanceof Histogram ? "histogram" : "gauge";
+            String name = each.metric instanceof Counter ? each.name + "_total" : each.name;
+            if (described.add(name)) {
+                text.append("# HELP ").append(name).append(' ').append(each.help).append('\n');
+                text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            }
+            if (each.metric instanceof Counter) {
+                line(text, name, each.labels, ((Counter) each.metric).value());
+            } else if (each.metric instanceof Histogram) {
+                Histogram histogram = (Histogram) each.metric;
+                long cumulative = 0;
+                for (int i = 0; i < BUCKETS; i++) {
+                    cumulative += histogram.buckets.get(i);
+                    String bound = i == BUCKETS - 1 ? "+Inf" : Double.toString((1L << i) / 1e6);
+                    String labels = (each.labels.isEmpty() ? "" : each.labels + ",") + "le=\"" + bound + "\"";
+                    line(text, name + "_bucket", labels, cumulative);
+                }
+                line(text, name + "_sum", each.labels, histogram.sumNanos.sum() / 1e9);
+                line(text, name + "_count", each.labels, histogram.count());
+            } else {
+                line(text, name, each.labels, ((LongSupplier) each.metric).getAsLong());
+            }
+        }
+        return text.toString();
+    }
+
+    private static void line(StringBuilder text, String name, String labels, Object value) {
+        text.append(name);
+        if (!labels.isEmpty()) {
+            text.append('{').append(labels).append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    // Counters show their total and rate, histograms their count, mean and p50/p99, gauges their value
+    private Map<String, Object> attributes() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Series each : series) {
+            String key = each.key();
+            if (each.metric instanceof Counter) {
+                Counter counter = (Counter) each.metric;
+                values.put(key, counter.value());
+                values.put(key + ".perSecond", counter.perSecond());
+            } else if (each.metric instanceof Histogram) {
+                Histogram histogram = (Histogram) each.metric;
+                values.put(key + ".count", histogram.count());
+                values.put(key + ".meanMillis", histogram.meanMillis());
+                values.put(key + ".p50Millis", histogram.quantileMillis(0.50));
+                values.put(key + ".p99Millis", histogram.quantileMillis(0.99));
+            } else {
+                values.put(key, ((LongSupplier) each.metric).getAsLong());
+            }
+        }
+        return values;
+    }
+
+    // Read-only view of the registry; attributes are listed afresh on every getMBeanInfo
+    private final class Bean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = attributes().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            Map<String, Object> values = attributes();
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                if (values.containsKey(name)) {
+                    list.add(new Attribute(name, values.get(name)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : attributes().entrySet()) {
+                infos.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Chat server metrics", infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package serverPackage;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import protocolPackage.*;
+
+// Selector based front end for ChatServer. A fixed set of event loops owns all sockets and only
+// does non-blocking reads, framing and writes; complete lines or binary frames are handed to the
+// same ClientHandler logic used by the threaded mode, so both wire protocols work unchanged.
+public class NioChatServer {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 64 * 1024; // Guard against a client that never sends '\n'
+    private static final int PROTOCOL_UNKNOWN = 0;
+    private static final int PROTOCOL_TEXT = 1;
+    private static final int PROTOCOL_HANDSHAKE = 2; // Saw MAGIC, waiting for the version byte
+    private static final int PROTOCOL_BINARY = 3;
+    // Above this many unsent bytes the connection stops pulling from its OutboundQueue, so a slow
+    // client's backlog stays in the bounded queue where the overflow policy applies
+    private static final int WRITE_HIGH_WATER_MARK = 64 * 1024;
+
+    private final int port;
+    private final EventLoop[] loops;
+    // ClientHandler still talks to MySQL synchronously, so it must never run on an event loop
+    private final ExecutorService workers;
+    private int nextLoop = 0;
+
+    public NioChatServer(int port, int eventLoops) throws IOException {
+        this.port = port;
+        this.loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new EventLoop("chat-event-loop-" + i);
+        }
+        int workerThreads = Integer.getInteger("chat.server.nio.workers", eventLoops * 4);
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+    }
+
+    public void run() throws IOException {
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            while (true) {
+                SocketChannel channel = serverChannel.accept(); // The acceptor blocks, the event loops never do
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        }
+    }
+
+    private class EventLoop extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop(String name) throws IOException {
+            super(name);
+            this.selector = Selector.open();
+            setDaemon(true);
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    Connection connection = new Connection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    try {
+                        channel.close();
+                    } catch (IOException closeFailure) {
+                        e.addSuppressed(closeFailure);
+                    }
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE); // Shared by every connection on this loop
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            e.printStackTrace(); // One bad task must not stop the loop for every connection on it
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                connection.read(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (RuntimeException e) {
+                            failed(connection, e);
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // A bug while serving one connection closes that connection rather than the whole loop
+        private void failed(Connection connection, RuntimeException e) {
+            System.out.println("Closing " + connection.channel + " after an unexpected error: " + e);
+            e.printStackTrace();
+            try {
+                connection.close();
+            } catch (RuntimeException closeFailure) {
+                closeFailure.printStackTrace();
+            }
+        }
+    }
+
+    private class Connection {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private SelectionKey key;
+        private int protocol = PROTOCOL_UNKNOWN;
+        private byte[] partial = new byte[64]; // Unframed input; grows only for clients that send long lines
+        private int partialLength = 0;
+        private final ChannelWriter channelWriter;
+        private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private final OutboundQueue outbound;
+        private final ChatServer.ClientHandler handler;
+
+        // Handler calls run on the worker pool, one at a time per connection and in arrival order
+        private final Queue<Runnable> inbound = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean closed = false;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.channelWriter = new ChannelWriter(this);
+            PrintWriter out = new PrintWriter(channelWriter);
+            this.outbound = ChatServer.newOutboundQueue(out, () -> loop.execute(this::close),
+                    () -> pendingBytes.get() < WRITE_HIGH_WATER_MARK);
+            this.handler = new ChatServer.ClientHandler(outbound, channel.socket().getInetAddress().getHostAddress());
+            handler.watchIdle(() -> loop.execute(this::close));
+        }
+
+        // The connection registers with the server once its first bytes show which protocol it speaks
+        private void start(int protocol) {
+            this.protocol = protocol;
+            channelWriter.binary = protocol == PROTOCOL_BINARY;
+            dispatch(() -> handler.onConnect(outbound));
+        }
+
+        void read(ByteBuffer readBuffer) {
+            int n;
+            try {
+                readBuffer.clear();
+                n = channel.read(readBuffer);
+            } catch (IOException e) {
+                n = -1;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+
+            readBuffer.flip();
+            if (protocol == PROTOCOL_UNKNOWN && readBuffer.hasRemaining()) {
+                if ((readBuffer.get(0) & 0xFF) == BinaryProtocol.MAGIC) {
+                    readBuffer.get();
+                    protocol = PROTOCOL_HANDSHAKE;
+                } else {
+                    start(PROTOCOL_TEXT);
+                }
+            }
+            if (protocol == PROTOCOL_HANDSHAKE && readBuffer.hasRemaining()) {
+                int version = BinaryProtocol.negotiateVersion(readBuffer.get());
+                enqueue(ByteBuffer.wrap(new byte[] {(byte) BinaryProtocol.MAGIC, (byte) version})); // Ahead of any frame
+                start(PROTOCOL_BINARY);
+            }
+
+            if (protocol == PROTOCOL_TEXT) {
+                readLines(readBuffer);
+            } else if (protocol == PROTOCOL_BINARY) {
+                readFrames(readBuffer);
+            }
+        }
+
+        // '\n' never occurs inside a multi-byte UTF-8 sequence, so framing can work on raw bytes
+        private void readLines(ByteBuffer readBuffer) {
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    int end = partialLength;
+                    if (end > 0 && partial[end - 1] == '\r') {
+                        end--; // Same line endings as BufferedReader.readLine()
+                    }
+                    String line = new String(partial, 0, end, StandardCharsets.UTF_8);
+                    dispatch(() -> handler.handleLine(line));
+                    partialLength = 0;
+                } else {
+                    if (partialLength == partial.length && !grow(partialLength + 1, MAX_LINE_LENGTH + 8)) {
+                        return;
+                    }
+                    partial[partialLength++] = b;
+                }
+            }
+        }
+
+        private void readFrames(ByteBuffer readBuffer) {
+            int incoming = readBuffer.remaining();
+            // Room for a whole frame plus the rest of the read that completed it
+            int limit = BinaryProtocol.MAX_FRAME_LENGTH + 8 + READ_BUFFER_SIZE;
+            if (partialLength + incoming > partial.length && !grow(partialLength + incoming, limit)) {
+                return;
+            }
+            readBuffer.get(partial, partialLength, incoming);
+            partialLength += incoming;
+
+            int offset = 0;
+            int[] prefixSize = new int[1];
+            while (offset < partialLength) {
+                long length;
+                try {
+                    length = Frame.peekVarInt(partial, offset, partialLength - offset, prefixSize);
+                } catch (IOException e) {
+                    System.out.println("Closing " + channel + ": " + e.getMessage());
+                    close();
+                    return;
+                }
+                if (length < 0) {
+                    break; // Rest of the length prefix has not arrived yet
+                }
+                // Same limit as FrameReader on the blocking modes, checked before waiting for the body
+                if (length == 0 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                    System.out.println("Closing " + channel + ": invalid frame length " + length);
+                    close();
+                    return;
+                }
+                if (offset + prefixSize[0] + length > partialLength) {
+                    break; // Rest of the frame has not arrived yet
+                }
+                // Copied because the worker handles it after this buffer has moved on
+                Frame frame = Frame.copyOf(partial, offset + prefixSize[0], (int) length);
+                dispatch(() -> {
+                    try {
+                        handler.handleFrame(frame);
+                    } catch (IOException e) {
+                        System.out.println("Closing " + channel + ": " + e.getMessage());
+                        loop.execute(this::close); // Runs on a worker; close belongs to the event loop
+                    }
+                });
+                offset += prefixSize[0] + (int) length;
+            }
+            System.arraycopy(partial, offset, partial, 0, partialLength - offset);
+            partialLength -= offset;
+        }
+
+        private boolean grow(int needed, int limit) {
+            if (needed > limit) {
+                System.out.println("Closing " + channel + ": input exceeds " + limit + " bytes without a frame boundary");
+                close();
+                return false;
+            }
+            partial = Arrays.copyOf(partial, Math.max(needed, partial.length * 2));
+            return true;
+        }
+
+        private void dispatch(Runnable call) {
+            inbound.add(call);
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                workers.execute(this::drainInbound);
+            }
+        }
+
+        private void drainInbound() {
+            Runnable call;
+            while ((call = inbound.poll()) != null) {
+                try {
+                    call.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // Keep draining, one bad line must not wedge the connection
+                }
+            }
+            draining.set(false);
+            if (!inbound.isEmpty()) {
+                scheduleDrain(); // A call arrived between the last poll and the reset
+            }
+        }
+
+        // Called from whichever thread flushed the PrintWriter
+        void enqueue(ByteBuffer bytes) {
+            if (closed) {
+                return;
+            }
+            pendingBytes.addAndGet(bytes.remaining());
+            pendingWrites.add(bytes);
+            loop.execute(() -> {
+                if (key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            });
+        }
+
+        void write() {
+            try {
+                ByteBuffer head;
+                while ((head = pendingWrites.peek()) != null) {
+                    int written = channel.write(head);
+                    boolean wasCongested = pendingBytes.get() >= WRITE_HIGH_WATER_MARK;
+                    if (pendingBytes.addAndGet(-written) < WRITE_HIGH_WATER_MARK && wasCongested) {
+                        outbound.resume(); // Room again, let the queue drain more lines into us
+                    }
+                    if (head.hasRemaining()) {
+                        return; // Socket buffer is full, wait for the next OP_WRITE
+                    }
+                    pendingWrites.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+                outbound.resume();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            pendingWrites.clear();
+            outbound.close();
+            partial = null;
+            if (protocol == PROTOCOL_TEXT || protocol == PROTOCOL_BINARY) {
+                dispatch(handler::onDisconnect); // Runs after any lines that were already framed
+            } else {
+                handler.unwatchIdle(); // Never registered with the server, so there is nothing else to undo
+            }
+        }
+    }
+
+    // Lets OutboundQueue keep using PrintWriter; each flush becomes one buffer on the write queue.
+    // For binary clients every buffered line is wrapped in a TEXT frame first.
+    private static class ChannelWriter extends Writer {
+        private final Connection connection;
+        private final StringBuilder buffer = new StringBuilder();
+        private final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        private final TextFrameWriter frameWriter = new TextFrameWriter(frames);
+        private volatile boolean binary = false;
+
+        ChannelWriter(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (binary) {
+                frameWriter.write(cbuf, off, len);
+            } else {
+                buffer.append(cbuf, off, len);
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (binary) {
+                if (frames.size() > 0) {
+                    connection.enqueue(ByteBuffer.wrap(frames.toByteArray()));
+                    frames.reset();
+                }
+                return;
+            }
+            if (buffer.length() == 0) {
+                return;
+            }
+            connection.enqueue(StandardCharsets.UTF_8.encode(CharBuffer.wrap(buffer)));
+            buffer.setLength(0);
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+}
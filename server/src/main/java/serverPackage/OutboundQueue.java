@@ -0,0 +1,203 @@
+package serverPackage;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.BooleanSupplier;
+
+// Bounded per-connection queue of outgoing lines. Broadcasting only enqueues; the lines are
+// written to the socket by a drain task on the shared writer pool, so a client on a slow link
+// fills its own queue instead of stalling the sender or anyone else's delivery.
+public class OutboundQueue {
+    public enum OverflowPolicy {
+        DROP_OLDEST, // Discard the oldest queued line to make room
+        DISCONNECT   // Treat the client as dead and close it
+    }
+
+    private static final int MAX_LINES_PER_FLUSH = 256;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final PrintWriter out;
+    private final Executor writers;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Runnable disconnect;
+    private final BooleanSupplier sinkReady;
+
+    // ReentrantLock rather than synchronized so a virtual thread never pins while holding it
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<String> lines = new ArrayDeque<>();
+    private boolean scheduled = false;
+    private boolean closed = false;
+    private int maxDepth = 0;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private volatile String label = "unauthenticated";
+    private volatile boolean messageIds = false; // Set at login for a client that reads MSG:<id> lines
+    private final Metrics.Counter queuedLines; // Shared by every queue of the server
+
+    // sinkReady lets a non-blocking sink pause draining; it must call resume() once it can take more
+    public OutboundQueue(PrintWriter out, Executor writers, int capacity, OverflowPolicy policy,
+                         Runnable disconnect, BooleanSupplier sinkReady, Metrics.Counter queuedLines) {
+        this.queuedLines = queuedLines;
+        this.out = out;
+        this.writers = writers;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.disconnect = disconnect;
+        this.sinkReady = sinkReady;
+    }
+
+    public void enqueue(String line) {
+        boolean overflow = false;
+        boolean schedule = false;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (lines.size() >= capacity) {
+                dropped.incrementAndGet();
+                if (policy == OverflowPolicy.DROP_OLDEST) {
+                    lines.pollFirst();
+                } else {
+                    overflow = true;
+                }
+            }
+            if (!overflow) {
+                queuedLines.increment();
+                lines.addLast(line);
+                maxDepth = Math.max(maxDepth, lines.size());
+                if (!scheduled && sinkReady.getAsBoolean()) {
+                    scheduled = schedule = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (overflow) {
+            System.out.println("Disconnecting slow consumer " + label + " after " + capacity + " queued lines");
+            close();
+            disconnect.run();
+        } else if (schedule) {
+            writers.execute(this::drain);
+        }
+    }
+
+    // A chat line in whichever of its two forms this client reads
+    public void enqueueChat(String line, String plainLine) {
+        enqueue(messageIds ? line : plainLine);
+    }
+
+    public void resume() {
+        boolean schedule = false;
+        lock.lock();
+        try {
+            if (!scheduled && !closed && !lines.isEmpty()) {
+                scheduled = schedule = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (schedule) {
+            writers.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<>(Math.min(capacity, MAX_LINES_PER_FLUSH));
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || lines.isEmpty() || !sinkReady.getAsBoolean()) {
+                    scheduled = false;
+                    return;
+                }
+                while (batch.size() < MAX_LINES_PER_FLUSH && !lines.isEmpty()) {
+                    batch.add(lines.pollFirst());
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // Written outside the lock: blocking here only holds up this client's own queue
+            for (String line : batch) {
+                out.print(line);
+                out.print(LINE_SEPARATOR);
+            }
+            out.flush(); // One flush per batch instead of one per line
+            sent.addAndGet(batch.size());
+            batch.clear();
+
+            if (out.checkError()) {
+                close();
+                disconnect.run();
+                return;
+            }
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            lines.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public void setMessageIds(boolean messageIds) {
+        this.messageIds = messageIds;
+    }
+
+    public boolean messageIds() {
+        return messageIds;
+    }
+
+    public String label() {
+        return label;
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return lines.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int maxDepth() {
+        lock.lock();
+        try {
+            return maxDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long droppedLines() {
+        return dropped.get();
+    }
+
+    public long sentLines() {
+        return sent.get();
+    }
+
+    @Override
+    public String toString() {
+        return label + " depth=" + depth() + "/" + capacity + " maxDepth=" + maxDepth() + " dropped=" + droppedLines() + " sent=" + sentLines();
+    }
+}
@@ -0,0 +1,14 @@
+package serverPackage;
+
+// Latest online state of one user, waiting to be written to the users table
+public class PresenceChange {
+    public final int userId;
+    public final boolean active;
+    public final long timestamp; // When the user went offline; becomes last_login
+
+    public PresenceChange(int userId, boolean active, long timestamp) {
+        this.userId = userId;
+        this.active = active;
+        this.timestamp = timestamp;
+    }
+}
@@ -0,0 +1,266 @@
+package serverPackage;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Who is online, held in memory as the source of truth. Logins and disconnects only record the
+// latest state per user; a periodic flush writes those to users.is_active / last_login in one
+// batch, so a user who drops and reconnects within a flush interval costs no UPDATE at all.
+// Online users that have someone as a contact get PRESENCE:<userId>:ONLINE|OFFLINE:<displayName>
+// lines when that user comes or goes.
+//
+// In a cluster the registry also holds the users other nodes reported online, so watchers here
+// hear about them too and a line for one of them can be routed to the node that has them.
+public class PresenceRegistry {
+    private static final class Session {
+        final OutboundQueue queue;
+        final String displayName;
+        final Set<Integer> contacts;
+
+        Session(OutboundQueue queue, String displayName, Set<Integer> contacts) {
+            this.queue = queue;
+            this.displayName = displayName;
+            this.contacts = contacts;
+        }
+    }
+
+    private static final class RemoteSession {
+        final int nodeId;
+        final String displayName;
+
+        RemoteSession(int nodeId, String displayName) {
+            this.nodeId = nodeId;
+            this.displayName = displayName;
+        }
+    }
+
+    private final ChatStore repository;
+    private final long flushIntervalMillis;
+    private final ConcurrentHashMap<Integer, Session> online = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, RemoteSession> remote = new ConcurrentHashMap<>();
+    // user_id -> online users that have that user as a contact
+    private final ConcurrentHashMap<Integer, Set<Integer>> watchers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, PresenceChange> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    public PresenceRegistry(ChatStore repository, long flushIntervalMillis) {
+        this.repository = repository;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public static PresenceRegistry fromSystemProperties(ChatStore repository) {
+        return new PresenceRegistry(repository, Long.getLong("chat.presence.flushIntervalMs", 2000L));
+    }
+
+    public void start(ScheduledExecutorService scheduler) {
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "presence-flush-shutdown"));
+    }
+
+    // Replaces any older connection of the same user; contacts are the user's contacts in either direction
+    public void online(int userId, String displayName, OutboundQueue queue, Set<Integer> contacts) {
+        Session session = new Session(queue, displayName, ConcurrentHashMap.newKeySet());
+        session.contacts.addAll(contacts);
+        Session previous = online.put(userId, session);
+        if (previous != null) {
+            unwatch(userId, previous.contacts);
+        }
+        for (int contact : contacts) {
+            watch(contact, userId);
+            String contactName = onlineDisplayName(contact);
+            if (contactName != null) {
+                queue.enqueue(presenceLine(contact, true, contactName)); // Snapshot for the new session
+            }
+        }
+        record(userId, true);
+        if (previous == null && !remote.containsKey(userId)) {
+            notifyWatchers(userId, true, displayName);
+        }
+    }
+
+    // False if a newer login already replaced this connection, in which case nothing changes
+    public boolean offline(int userId, OutboundQueue queue) {
+        Session session = online.get(userId);
+        if (session == null || session.queue != queue || !online.remove(userId, session)) {
+            return false;
+        }
+        unwatch(userId, session.contacts);
+        record(userId, false);
+        if (!remote.containsKey(userId)) {
+            notifyWatchers(userId, false, session.displayName); // Unless still on another node
+        }
+        return true;
+    }
+
+    // Another node reports the user online there
+    public void remoteOnline(int userId, String displayName, int nodeId) {
+        RemoteSession previous = remote.put(userId, new RemoteSession(nodeId, displayName));
+        if (previous == null && !online.containsKey(userId)) {
+            notifyWatchers(userId, true, displayName);
+        }
+    }
+
+    // Ignored if a later login on a different node already replaced that session
+    public void remoteOffline(int userId, int nodeId) {
+        RemoteSession session = remote.get(userId);
+        if (session == null || session.nodeId != nodeId || !remote.remove(userId, session)) {
+            return;
+        }
+        if (!online.containsKey(userId)) {
+            notifyWatchers(userId, false, session.displayName);
+        }
+    }
+
+    // A node left the cluster: everyone it reported is offline as far as we can tell
+    public void nodeDown(int nodeId) {
+        for (Map.Entry<Integer, RemoteSession> entry : remote.entrySet()) {
+            if (entry.getValue().nodeId == nodeId) {
+                remoteOffline(entry.getKey(), nodeId);
+            }
+        }
+    }
+
+    // A new contact pair: each side starts watching the other and learns whether it is online
+    public void addContact(int userId, int contactId) {
+        link(userId, contactId);
+        link(contactId, userId);
+    }
+
+    private void link(int userId, int contactId) {
+        Session session = online.get(userId);
+        if (session == null || !session.contacts.add(contactId)) {
+            return;
+        }
+        watch(contactId, userId);
+        String contactName = onlineDisplayName(contactId);
+        if (contactName != null) {
+            session.queue.enqueue(presenceLine(contactId, true, contactName));
+        }
+    }
+
+    // Display name of a user online here or on another node, or null
+    private String onlineDisplayName(int userId) {
+        Session session = online.get(userId);
+        if (session != null) {
+            return session.displayName;
+        }
+        RemoteSession remoteSession = remote.get(userId);
+        return remoteSession == null ? null : remoteSession.displayName;
+    }
+
+    // Added inside compute so unwatch cannot drop the set between creating it and adding to it
+    private void watch(int contact, int userId) {
+        watchers.compute(contact, (id, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            set.add(userId);
+            return set;
+        });
+    }
+
+    private void unwatch(int userId, Set<Integer> contacts) {
+        for (int contact : contacts) {
+            watchers.computeIfPresent(contact, (id, set) -> {
+                set.remove(userId);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    private void notifyWatchers(int userId, boolean isOnline, String displayName) {
+        Set<Integer> interested = watchers.get(userId);
+        if (interested == null) {
+            return;
+        }
+        String line = presenceLine(userId, isOnline, displayName);
+        for (int watcher : interested) {
+            Session session = online.get(watcher);
+            if (session != null) {
+                session.queue.enqueue(line);
+            }
+        }
+    }
+
+    private static String presenceLine(int userId, boolean isOnline, String displayName) {
+        return "PRESENCE:" + userId + ":" + (isOnline ? "ONLINE" : "OFFLINE") + ":" + displayName;
+    }
+
+    private void record(int userId, boolean active) {
+        changes.incrementAndGet();
+        pending.put(userId, new PresenceChange(userId, active, System.currentTimeMillis())); // Only the latest state is written
+    }
+
+    public void flush() {
+        if (pending.isEmpty() || !repository.health().isAvailable()) {
+            return; // Kept for the first flush after the database is back
+        }
+        List<PresenceChange> batch = new ArrayList<>(pending.values());
+        for (PresenceChange change : batch) {
+            pending.remove(change.userId, change); // A newer change for the same user stays queued
+        }
+        try {
+            repository.saveActiveStatuses(batch);
+            flushes.incrementAndGet();
+            flushedRows.addAndGet(batch.size());
+        } catch (SQLException e) {
+            for (PresenceChange change : batch) {
+                pending.putIfAbsent(change.userId, change); // Unless a newer one arrived meanwhile
+            }
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isOnline(int userId) {
+        return online.containsKey(userId);
+    }
+
+    // The user's current connection, or null when offline
+    public OutboundQueue queueOf(int userId) {
+        Session session = online.get(userId);
+        return session == null ? null : session.queue;
+    }
+
+    // The node another of the cluster's nodes said holds the user, or -1
+    public int remoteNodeOf(int userId) {
+        RemoteSession session = remote.get(userId);
+        return session == null ? -1 : session.nodeId;
+    }
+
+    // user_id -> display name of every user with a session on this node
+    public Map<Integer, String> localDisplayNames() {
+        Map<Integer, String> names = new HashMap<>();
+        for (Map.Entry<Integer, Session> entry : online.entrySet()) {
+            names.put(entry.getKey(), entry.getValue().displayName);
+        }
+        return names;
+    }
+
+    public int onlineCount() {
+        return online.size();
+    }
+
+    public int remoteOnlineCount() {
+        return remote.size();
+    }
+
+    public int pendingChanges() {
+        return pending.size();
+    }
+
+    // Logins and disconnects that did not need an UPDATE of their own
+    public long coalescedChanges() {
+        return changes.get() - flushedRows.get() - pending.size();
+    }
+
+    @Override
+    public String toString() {
+        return "online=" + onlineCount() + " remote=" + remoteOnlineCount() + " pending=" + pendingChanges() + " changes=" + changes.get()
+                + " flushedRows=" + flushedRows.get() + " flushes=" + flushes.get() + " coalesced=" + coalescedChanges();
+    }
+}
@@ -0,0 +1,249 @@
+package serverPackage;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+// The most recent chat messages of each room, kept in memory so login replay, resume deltas and
+// the first history pages are answered without a query. Each room is a ring capped at
+// messagesPerRoom messages and charsPerRoom characters of content; the oldest are evicted first.
+//
+// Messages get their id here, under the same lock that appends them, so every room holds an
+// unbroken run of ids and a reader never sees id n+1 without n. Memory can answer a request only
+// if nothing it needs was evicted or predates the first message seen: everything after
+// completeAfter is held, across all rooms. Otherwise the caller falls back to SQL.
+//
+// In a cluster, messages from other nodes arrive with their ids already set and are slotted
+// into their room in id order. One still in flight can land behind a read that already went
+// past its id; the client gets it live instead.
+public class RecentMessages {
+    private final MessageSequence ids;
+    private final int messagesPerRoom;
+    private final long charsPerRoom;
+    // ReentrantLock rather than synchronized so a virtual thread never pins while holding it
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Ring> rooms = new HashMap<>();
+    private long completeAfter = Long.MAX_VALUE; // Until the first message with an id arrives
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // messagesPerRoom 0 turns the buffer off; every read then goes to the database
+    public RecentMessages(MessageSequence ids, int messagesPerRoom, long charsPerRoom) {
+        this.ids = ids;
+        this.messagesPerRoom = messagesPerRoom;
+        this.charsPerRoom = charsPerRoom;
+    }
+
+    public static RecentMessages fromSystemProperties(MessageSequence ids) {
+        return new RecentMessages(ids,
+                Integer.getInteger("chat.history.roomBufferMessages", 500),
+                Long.getLong("chat.history.roomBufferChars", 256 * 1024L));
+    }
+
+    // Assigns the message its id and keeps it. Without an id (the sequence is not seeded yet)
+    // the message is not kept, since a client could not resume from it anyway.
+    public ChatMessage accept(int userId, String displayName, String content, int chatRoomId) {
+        lock.lock();
+        try {
+            ChatMessage message = new ChatMessage(ids.next(), userId, displayName, content, chatRoomId, System.currentTimeMillis());
+            if (message.messageId == -1 || messagesPerRoom <= 0) {
+                return message;
+            }
+            if (completeAfter == Long.MAX_VALUE) {
+                completeAfter = message.messageId - 1; // Everything before was written before we started
+            }
+            keep(message);
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A message another node accepted; the local sequence moves past its id
+    public void add(ChatMessage message) {
+        lock.lock();
+        try {
+            if (message.messageId == -1) {
+                return;
+            }
+            ids.observe(message.messageId);
+            if (messagesPerRoom <= 0) {
+                return;
+            }
+            if (completeAfter == Long.MAX_VALUE) {
+                completeAfter = message.messageId - 1;
+            } else if (message.messageId <= completeAfter) {
+                return; // Older than what memory claims to hold; SQL answers for it
+            }
+            keep(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void keep(ChatMessage message) {
+        // One spare slot: the new message goes in first, then the oldest are evicted and counted
+        Ring ring = rooms.computeIfAbsent(message.chatRoomId, id -> new Ring(messagesPerRoom + 1));
+        ring.add(message);
+        while (ring.size > 1 && (ring.size > messagesPerRoom || ring.chars > charsPerRoom)) {
+            completeAfter = Math.max(completeAfter, ring.removeOldest().messageId);
+        }
+    }
+
+    // The newest `limit` messages older than beforeMessageId in the given rooms, oldest first,
+    // or null when memory does not hold all of them
+    public List<ChatMessage> page(long beforeMessageId, int limit, Collection<Integer> chatRoomIds) {
+        lock.lock();
+        try {
+            List<ChatMessage> newest = new ArrayList<>();
+            for (int chatRoomId : chatRoomIds) {
+                Ring ring = rooms.get(chatRoomId);
+                if (ring != null) {
+                    ring.collectBefore(beforeMessageId, limit, newest);
+                }
+            }
+            newest.sort(Comparator.comparingLong((ChatMessage message) -> message.messageId).reversed());
+            List<ChatMessage> page = newest.subList(0, Math.min(limit, newest.size()));
+            // Short of a full page, older messages may be in the table unless memory holds everything
+            boolean complete = page.size() == limit ? page.get(page.size() - 1).messageId > completeAfter : completeAfter == 0;
+            if (!complete) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            List<ChatMessage> oldestFirst = new ArrayList<>(page);
+            Collections.reverse(oldestFirst);
+            return oldestFirst;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Up to `limit` messages newer than afterMessageId in the given rooms, oldest first, or null
+    // when some of them may have been evicted
+    public List<ChatMessage> after(long afterMessageId, int limit, Collection<Integer> chatRoomIds) {
+        lock.lock();
+        try {
+            if (afterMessageId < completeAfter) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            List<ChatMessage> newer = new ArrayList<>();
+            for (int chatRoomId : chatRoomIds) {
+                Ring ring = rooms.get(chatRoomId);
+                if (ring != null) {
+                    ring.collectAfter(afterMessageId, newer);
+                }
+            }
+            newer.sort(Comparator.comparingLong(message -> message.messageId));
+            return newer.size() > limit ? new ArrayList<>(newer.subList(0, limit)) : newer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int roomCount() {
+        lock.lock();
+        try {
+            return rooms.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int bufferedMessages() {
+        lock.lock();
+        try {
+            int total = 0;
+            for (Ring ring : rooms.values()) {
+                total += ring.size;
+            }
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "rooms=" + roomCount() + " buffered=" + bufferedMessages() + " hits=" + hits() + " misses=" + misses();
+    }
+
+    // Fixed-capacity ring of one room's messages in id order
+    private static final class Ring {
+        private ChatMessage[] slots;
+        private final int capacity;
+        private int head = 0; // Oldest
+        private int size = 0;
+        private long chars = 0;
+
+        Ring(int capacity) {
+            this.capacity = capacity;
+            this.slots = new ChatMessage[Math.min(capacity, 16)]; // Grows up to capacity; most rooms are quiet
+        }
+
+        void add(ChatMessage message) {
+            if (size == slots.length) {
+                grow(); // Never past capacity: accept() trims back below it after every add
+            }
+            // Slides back past newer messages; only a message from another node is ever out of order
+            int at = size;
+            while (at > 0 && slots[(head + at - 1) % slots.length].messageId > message.messageId) {
+                slots[(head + at) % slots.length] = slots[(head + at - 1) % slots.length];
+                at--;
+            }
+            slots[(head + at) % slots.length] = message;
+            size++;
+            chars += message.content.length();
+        }
+
+        ChatMessage removeOldest() {
+            ChatMessage oldest = slots[head];
+            slots[head] = null;
+            head = (head + 1) % slots.length;
+            size--;
+            chars -= oldest.content.length();
+            return oldest;
+        }
+
+        // Newest first, at most limit of them
+        void collectBefore(long beforeMessageId, int limit, List<ChatMessage> into) {
+            int taken = 0;
+            for (int i = size - 1; i >= 0 && taken < limit; i--) {
+                ChatMessage message = slots[(head + i) % slots.length];
+                if (message.messageId < beforeMessageId) {
+                    into.add(message);
+                    taken++;
+                }
+            }
+        }
+
+        void collectAfter(long afterMessageId, List<ChatMessage> into) {
+            for (int i = size - 1; i >= 0; i--) {
+                ChatMessage message = slots[(head + i) % slots.length];
+                if (message.messageId <= afterMessageId) {
+                    break; // Ids only grow within a room
+                }
+                into.add(message);
+            }
+        }
+
+        private void grow() {
+            ChatMessage[] larger = new ChatMessage[Math.min(capacity, slots.length * 2)];
+            for (int i = 0; i < size; i++) {
+                larger[i] = slots[(head + i) % slots.length];
+            }
+            slots = larger;
+            head = 0;
+        }
+    }
+}
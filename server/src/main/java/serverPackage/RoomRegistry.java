@@ -0,0 +1,54 @@
+package serverPackage;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Chat room id -> the outbound queues of the connections that joined it. Delivering a room
+// message costs one enqueue per member instead of one per connected client.
+public class RoomRegistry {
+    private final ConcurrentHashMap<Integer, Set<OutboundQueue>> rooms = new ConcurrentHashMap<>();
+
+    // The add happens inside compute, so a concurrent leave cannot remove the set in between
+    // and leave the member in a set no longer in the map
+    public void join(int roomId, OutboundQueue member) {
+        rooms.compute(roomId, (id, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+            }
+            members.add(member);
+            return members;
+        });
+    }
+
+    public void leave(int roomId, OutboundQueue member) {
+        // Emptying and removing happen under the same entry lock as join's add
+        rooms.computeIfPresent(roomId, (id, members) -> {
+            members.remove(member);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    public boolean isMember(int roomId, OutboundQueue member) {
+        Set<OutboundQueue> members = rooms.get(roomId);
+        return members != null && members.contains(member);
+    }
+
+    public void deliver(int roomId, String line, String plainLine) {
+        Set<OutboundQueue> members = rooms.get(roomId);
+        if (members == null) {
+            return;
+        }
+        for (OutboundQueue member : members) {
+            member.enqueueChat(line, plainLine);
+        }
+    }
+
+    public int memberCount(int roomId) {
+        Set<OutboundQueue> members = rooms.get(roomId);
+        return members == null ? 0 : members.size();
+    }
+
+    public int roomCount() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,74 @@
+package serverPackage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Signed, self-contained session tokens: base64url(userId, username, displayName, expiry) "."
+// base64url(HMAC-SHA256). Nothing is stored server side, so a token issued before a restart is
+// still accepted afterwards as long as chat.session.secret is the same.
+public class SessionTokens {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+
+    public SessionTokens(byte[] secret, long ttlMillis) {
+        this.key = new SecretKeySpec(secret, "HmacSHA256");
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static SessionTokens fromSystemProperties() {
+        String secret = System.getProperty("chat.session.secret");
+        byte[] bytes;
+        if (secret == null) {
+            bytes = new byte[32];
+            new SecureRandom().nextBytes(bytes);
+            System.out.println("chat.session.secret is not set; session tokens will not survive a restart");
+        } else {
+            bytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        return new SessionTokens(bytes, Long.getLong("chat.session.ttlSeconds", 86_400L) * 1000);
+    }
+
+    public String issue(int userId, String username, String displayName) {
+        String payload = userId + "\n" + username + "\n" + displayName + "\n" + (System.currentTimeMillis() + ttlMillis);
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(payloadBytes) + "." + ENCODER.encodeToString(sign(payloadBytes));
+    }
+
+    // The user the token was issued to, or null if it is forged, garbled or expired
+    public UserRecord verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        try {
+            byte[] payloadBytes = DECODER.decode(token.substring(0, dot));
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, sign(payloadBytes))) {
+                return null;
+            }
+            String[] fields = new String(payloadBytes, StandardCharsets.UTF_8).split("\n", 4);
+            if (fields.length != 4 || Long.parseLong(fields[3]) < System.currentTimeMillis()) {
+                return null;
+            }
+            return new UserRecord(Integer.parseInt(fields[0]), fields[1], fields[2], null);
+        } catch (IllegalArgumentException e) {
+            return null; // Bad base64 or numbers: treat like any other invalid token
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256"); // Mac is not thread safe; creating one is cheap next to a login
+            mac.init(key);
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package serverPackage;
+
+import java.util.*;
+
+// The bus of a node that is not part of a cluster (-Dchat.cluster.bus=none): node 0 of 1, with
+// no one to publish to. Nodes share a cluster across JVMs over TcpMeshBus; LoopbackBus joins
+// in-process listeners to a node, for tests.
+public class StandaloneBus implements ClusterBus {
+
+    @Override
+    public void start(Listener listener) {
+    }
+
+    @Override
+    public void publish(ClusterEvent event) {
+    }
+
+    @Override
+    public int nodeId() {
+        return 0;
+    }
+
+    @Override
+    public int nodeCount() {
+        return 1;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,325 @@
+package serverPackage;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// ClusterBus over TCP between every pair of nodes. Each node listens on its own entry of the node
+// list and dials every other entry; a connection carries events one way only, from the dialer.
+// So each node has one sender per peer, with its own queue and thread, and a slow or dead peer
+// holds up nobody else.
+//
+// A sender redials with backoff until the peer is back, and starts every connection with the
+// listener's snapshot. The receiving side treats a closed connection as the peer being gone.
+// Events published while a peer is away wait in its queue. If the queue fills up, it is cleared
+// and the connection is dropped: the peer forgets that node's users and rebuilds them from the
+// next snapshot, rather than acting on a stream with holes in it.
+//
+// Each node listens only on its own address from the node list, and only talks to nodes that know
+// the cluster's shared secret (-Dchat.cluster.secret). The listener sends a random challenge; the
+// dialer answers with HMAC-SHA256(secret, challenge, dialer id, listener id), so the secret never
+// crosses the wire and an answer cannot be replayed on another connection.
+//
+// Stream: <int MAGIC><int nodeId> from the dialer, <CHALLENGE_BYTES challenge> back from the
+// listener, <HMAC_BYTES answer> from the dialer, then ClusterEvents back to back.
+public class TcpMeshBus implements ClusterBus {
+    private static final int MAGIC = 0x43434C32; // "CCL2"
+    private static final long MAX_REDIAL_MILLIS = 5000;
+    private static final int CHALLENGE_BYTES = 16;
+    private static final int HMAC_BYTES = 32;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    private final int nodeId;
+    private final List<InetSocketAddress> nodes;
+    private final int queueCapacity;
+    private final SecretKeySpec secret;
+    private final SecureRandom random = new SecureRandom();
+    private final List<Peer> peers = new ArrayList<>();
+    // Per peer, the newest authenticated connection from it. A peer that redials before its old
+    // connection is noticed dead supersedes it; the old one must then not report the peer down.
+    private final Socket[] inbound;
+    private volatile Listener listener;
+    private volatile boolean running = true;
+    private ServerSocket serverSocket;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public TcpMeshBus(int nodeId, List<InetSocketAddress> nodes, int queueCapacity, String secret) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("A tcp cluster needs a shared secret, chat.cluster.secret");
+        }
+        this.nodeId = nodeId;
+        this.nodes = new ArrayList<>(nodes);
+        this.queueCapacity = queueCapacity;
+        this.inbound = new Socket[nodes.size()];
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        this.listener = listener;
+        serverSocket = new ServerSocket();
+        serverSocket.bind(nodes.get(nodeId)); // This node's address only, not every interface
+        daemon(this::acceptLoop, "cluster-accept").start();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i != nodeId) {
+                Peer peer = new Peer(i, nodes.get(i));
+                peers.add(peer);
+                daemon(peer::sendLoop, "cluster-send-" + i).start();
+            }
+        }
+        System.out.println("Cluster node " + nodeId + " of " + nodes.size() + " listening on " + nodes.get(nodeId));
+    }
+
+    @Override
+    public void publish(ClusterEvent event) {
+        published.incrementAndGet();
+        for (Peer peer : peers) {
+            peer.offer(event);
+        }
+    }
+
+    @Override
+    public int nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public int nodeCount() {
+        return nodes.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        for (Peer peer : peers) {
+            peer.disconnect();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                daemon(() -> receive(socket), "cluster-receive-" + socket.getRemoteSocketAddress()).start();
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Reads one peer's events until its connection ends, then reports the peer down
+    private void receive(Socket socket) {
+        int from = -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16))) {
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS); // A silent stranger must not keep this thread
+            int claimed = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (claimed < 0 || claimed >= nodes.size() || claimed == nodeId) {
+                System.out.println("Ignoring cluster connection without the handshake from " + socket.getRemoteSocketAddress());
+                return;
+            }
+            byte[] challenge = new byte[CHALLENGE_BYTES];
+            random.nextBytes(challenge);
+            OutputStream out = socket.getOutputStream();
+            out.write(challenge);
+            out.flush();
+            byte[] answer = new byte[HMAC_BYTES];
+            in.readFully(answer);
+            if (!MessageDigest.isEqual(answer, sign(challenge, claimed, nodeId))) {
+                System.out.println("Rejecting cluster connection claiming to be node " + claimed + " from " + socket.getRemoteSocketAddress() + ": wrong secret");
+                return;
+            }
+            socket.setSoTimeout(0);
+            from = claimed;
+            Socket superseded;
+            synchronized (inbound) {
+                superseded = inbound[from];
+                inbound[from] = socket;
+            }
+            if (superseded != null) {
+                superseded.close(); // Its reader ends without reporting node down
+            }
+            System.out.println("Cluster node " + from + " connected");
+            while (true) {
+                ClusterEvent event = ClusterEvent.readFrom(in);
+                received.incrementAndGet();
+                try {
+                    listener.onEvent(event);
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // One bad event must not cut the node off
+                }
+            }
+        } catch (EOFException e) {
+            // Peer closed the connection
+        } catch (IOException e) {
+            if (running) {
+                System.out.println("Cluster connection from node " + from + " failed: " + e.getMessage());
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (from >= 0) {
+                // Checked and reported under the lock, so a newer connection's snapshot cannot
+                // land between the check and onNodeDown and then be wiped by it
+                synchronized (inbound) {
+                    if (inbound[from] == socket) {
+                        inbound[from] = null;
+                        System.out.println("Cluster node " + from + " disconnected");
+                        listener.onNodeDown(from);
+                    }
+                }
+            }
+        }
+    }
+
+    // The answer to a challenge, binding it to both ends of this one connection
+    private byte[] sign(byte[] challenge, int dialer, int listener) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secret);
+            mac.update(challenge);
+            mac.update(new byte[] {(byte) (dialer >>> 24), (byte) (dialer >>> 16), (byte) (dialer >>> 8), (byte) dialer});
+            return mac.doFinal(new byte[] {(byte) (listener >>> 24), (byte) (listener >>> 16), (byte) (listener >>> 8), (byte) listener});
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e); // Every JRE is required to have it
+        }
+    }
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public long publishedEvents() {
+        return published.get();
+    }
+
+    public long receivedEvents() {
+        return received.get();
+    }
+
+    public long droppedEvents() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("node=" + nodeId + " published=" + publishedEvents()
+                + " received=" + receivedEvents() + " dropped=" + droppedEvents());
+        for (Peer peer : peers) {
+            text.append(" peer").append(peer.id).append(peer.connected ? "=up" : "=down").append("/").append(peer.queue.size());
+        }
+        return text.toString();
+    }
+
+    // The outgoing half of the link to one other node
+    private final class Peer {
+        final int id;
+        final InetSocketAddress address;
+        final BlockingQueue<ClusterEvent> queue = new LinkedBlockingQueue<>(queueCapacity);
+        volatile boolean connected = false;
+        volatile boolean resync = false; // Set when events were thrown away; forces a reconnect
+        volatile Socket socket;
+
+        Peer(int id, InetSocketAddress address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        void offer(ClusterEvent event) {
+            if (!queue.offer(event)) {
+                int lost = queue.size() + 1;
+                queue.clear();
+                dropped.addAndGet(lost);
+                resync = true;
+                disconnect();
+            }
+        }
+
+        void disconnect() {
+            Socket current = socket;
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        void sendLoop() {
+            long redialMillis = 100;
+            List<ClusterEvent> batch = new ArrayList<>();
+            while (running) {
+                try (Socket connection = new Socket()) {
+                    connection.connect(address, 2000);
+                    connection.setTcpNoDelay(true);
+                    socket = connection;
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(), 1 << 16));
+                    out.writeInt(MAGIC);
+                    out.writeInt(nodeId);
+                    out.flush();
+                    connection.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                    byte[] challenge = new byte[CHALLENGE_BYTES];
+                    new DataInputStream(connection.getInputStream()).readFully(challenge);
+                    connection.setSoTimeout(0);
+                    out.write(sign(challenge, nodeId, id));
+                    resync = false;
+                    for (ClusterEvent event : listener.snapshot()) {
+                        event.writeTo(out);
+                    }
+                    out.flush();
+                    connected = true;
+                    redialMillis = 100;
+                    System.out.println("Connected to cluster node " + id + " at " + address);
+                    while (running && !resync) {
+                        ClusterEvent first = queue.poll(1, TimeUnit.SECONDS);
+                        if (first == null) {
+                            continue;
+                        }
+                        batch.add(first);
+                        queue.drainTo(batch, 255); // One flush for whatever piled up meanwhile
+                        for (ClusterEvent event : batch) {
+                            event.writeTo(out);
+                        }
+                        batch.clear();
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    if (connected) {
+                        System.out.println("Lost cluster node " + id + ": " + e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    connected = false;
+                    socket = null;
+                    batch.clear(); // Half-written; the peer drops our users and takes the next snapshot
+                }
+                try {
+                    Thread.sleep(redialMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                redialMillis = Math.min(MAX_REDIAL_MILLIS, redialMillis * 2);
+            }
+        }
+    }
+}
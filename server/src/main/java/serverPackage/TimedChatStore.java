@@ -0,0 +1,128 @@
+package serverPackage;
+
+import java.sql.*;
+import java.util.*;
+
+// Wraps a ChatStore and records how long each call takes, per method, in
+// chat_store_seconds{method="..."}; failed calls count in chat_store_errors. Works the same for
+// either backend, since it only sees the interface.
+public class TimedChatStore implements ChatStore {
+    private final ChatStore store;
+    private final Metrics.Histogram findLogin;
+    private final Metrics.Histogram findUserIdByDisplayName;
+    private final Metrics.Histogram findActiveStatus;
+    private final Metrics.Histogram saveContact;
+    private final Metrics.Histogram findContacts;
+    private final Metrics.Histogram findContactIds;
+    private final Metrics.Histogram saveActiveStatuses;
+    private final Metrics.Histogram saveMessages;
+    private final Metrics.Histogram findMaxMessageId;
+    private final Metrics.Histogram streamMessagesAfter;
+    private final Metrics.Histogram streamHistoryPage;
+    private final Metrics.Counter errors;
+
+    public TimedChatStore(ChatStore store, Metrics metrics) {
+        this.store = store;
+        this.findLogin = timer(metrics, "findLogin");
+        this.findUserIdByDisplayName = timer(metrics, "findUserIdByDisplayName");
+        this.findActiveStatus = timer(metrics, "findActiveStatus");
+        this.saveContact = timer(metrics, "saveContact");
+        this.findContacts = timer(metrics, "findContacts");
+        this.findContactIds = timer(metrics, "findContactIds");
+        this.saveActiveStatuses = timer(metrics, "saveActiveStatuses");
+        this.saveMessages = timer(metrics, "saveMessages");
+        this.findMaxMessageId = timer(metrics, "findMaxMessageId");
+        this.streamMessagesAfter = timer(metrics, "streamMessagesAfter");
+        this.streamHistoryPage = timer(metrics, "streamHistoryPage");
+        this.errors = metrics.counter("chat_store_errors", "Store calls that threw SQLException");
+    }
+
+    private static Metrics.Histogram timer(Metrics metrics, String method) {
+        return metrics.histogram("chat_store_seconds", "method=\"" + method + "\"", "Latency of ChatStore calls");
+    }
+
+    private interface Call<T> {
+        T run() throws SQLException;
+    }
+
+    private <T> T time(Metrics.Histogram histogram, Call<T> call) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return call.run();
+        } catch (SQLException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            histogram.recordSince(start);
+        }
+    }
+
+    @Override
+    public DatabaseHealth health() {
+        return store.health();
+    }
+
+    @Override
+    public UserRecord findLogin(String username) throws SQLException {
+        return time(findLogin, () -> store.findLogin(username));
+    }
+
+    @Override
+    public int findUserIdByDisplayName(String displayName) throws SQLException {
+        return time(findUserIdByDisplayName, () -> store.findUserIdByDisplayName(displayName));
+    }
+
+    @Override
+    public Integer findActiveStatus(String userId) throws SQLException {
+        return time(findActiveStatus, () -> store.findActiveStatus(userId));
+    }
+
+    @Override
+    public void saveContact(String senderId, String receiverId) throws SQLException {
+        time(saveContact, () -> {
+            store.saveContact(senderId, receiverId);
+            return null;
+        });
+    }
+
+    @Override
+    public List<String> findContacts(String userId) throws SQLException {
+        return time(findContacts, () -> store.findContacts(userId));
+    }
+
+    @Override
+    public Set<Integer> findContactIds(int userId) throws SQLException {
+        return time(findContactIds, () -> store.findContactIds(userId));
+    }
+
+    @Override
+    public void saveActiveStatuses(List<PresenceChange> changes) throws SQLException {
+        time(saveActiveStatuses, () -> {
+            store.saveActiveStatuses(changes);
+            return null;
+        });
+    }
+
+    @Override
+    public void saveMessages(List<ChatMessage> messages) throws SQLException {
+        time(saveMessages, () -> {
+            store.saveMessages(messages);
+            return null;
+        });
+    }
+
+    @Override
+    public long findMaxMessageId() throws SQLException {
+        return time(findMaxMessageId, store::findMaxMessageId);
+    }
+
+    @Override
+    public int streamMessagesAfter(long afterMessageId, int limit, Collection<Integer> chatRoomIds, HistoryRowHandler handler) throws SQLException {
+        return time(streamMessagesAfter, () -> store.streamMessagesAfter(afterMessageId, limit, chatRoomIds, handler));
+    }
+
+    @Override
+    public int streamHistoryPage(long beforeMessageId, int limit, Collection<Integer> chatRoomIds, HistoryRowHandler handler) throws SQLException {
+        return time(streamHistoryPage, () -> store.streamHistoryPage(beforeMessageId, limit, chatRoomIds, handler));
+    }
+}
@@ -0,0 +1,60 @@
+package serverPackage;
+
+import java.util.concurrent.locks.*;
+
+// Classic token bucket: holds up to capacity tokens and refills continuously at refillPerSecond.
+public class TokenBucket {
+    private final double capacity;
+    private final double refillPerNano;
+    private final ReentrantLock lock = new ReentrantLock();
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public TokenBucket(double capacity, double refillPerSecond) {
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / 1e9;
+        this.tokens = capacity;
+    }
+
+    public boolean tryTake() {
+        lock.lock();
+        try {
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // True if a token is there, without taking it
+    public boolean hasToken() {
+        lock.lock();
+        try {
+            refill();
+            return tokens >= 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A full bucket carries no history, so it can be dropped and recreated on demand
+    public boolean isFull() {
+        lock.lock();
+        try {
+            refill();
+            return tokens >= capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,230 @@
+package serverPackage;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+// Bounded cache of username <-> user_id <-> display name. Entries are filled at login and by
+// lookups that had to go to the database, expire after ttlMillis, and the least recently used
+// entry is evicted once maxEntries is reached. Logging in again replaces a user's entry, so a
+// changed display name is picked up at the latest on the next login or after the TTL.
+public class UserDirectory {
+    private static final class Entry {
+        final int userId;
+        final String username; // Null when the entry came from a display name lookup
+        final String displayName;
+        final long expiresAt;
+
+        Entry(int userId, String username, String displayName, long expiresAt) {
+            this.userId = userId;
+            this.username = username;
+            this.displayName = displayName;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final ChatStore repository;
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    // ReentrantLock rather than synchronized so a virtual thread never pins while holding it; an
+    // access-ordered LinkedHashMap changes on every get, so reads take the lock as well
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Integer, Entry> byUserId;
+    private final Map<String, Entry> byUsername = new HashMap<>();
+    private final Map<String, Entry> byDisplayName = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public UserDirectory(ChatStore repository, int maxEntries, long ttlMillis) {
+        this.repository = repository;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.byUserId = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() <= UserDirectory.this.maxEntries) {
+                    return false;
+                }
+                unindex(eldest.getValue());
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    public static UserDirectory fromSystemProperties(ChatStore repository) {
+        return new UserDirectory(repository,
+                Integer.getInteger("chat.users.cacheSize", 10_000),
+                Long.getLong("chat.users.ttlSeconds", 600L) * 1000);
+    }
+
+    public void put(int userId, String username, String displayName) {
+        Entry entry = new Entry(userId, username, displayName, System.currentTimeMillis() + ttlMillis);
+        lock.lock();
+        try {
+            Entry previous = byUserId.remove(userId);
+            if (previous != null) {
+                unindex(previous); // Drops the old display name if it changed
+            }
+            byUserId.put(userId, entry);
+            if (username != null) {
+                byUsername.put(username, entry);
+            }
+            if (displayName != null) {
+                byDisplayName.put(displayName, entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Cached id for the display name, or -1 without going to the database. Only hits are counted:
+    // the caller hands a miss on to a lookup that loads it, and that lookup counts the miss.
+    public int cachedUserIdByDisplayName(String displayName) {
+        Entry entry = live(byDisplayName, displayName);
+        if (entry == null) {
+            return -1;
+        }
+        hits.incrementAndGet();
+        return entry.userId;
+    }
+
+    // Cached id for the display name, loading it from the database on a miss; -1 if there is no such user
+    public int userIdByDisplayName(String displayName) throws SQLException {
+        Entry entry = count(live(byDisplayName, displayName));
+        if (entry != null) {
+            return entry.userId;
+        }
+        loads.incrementAndGet();
+        int userId = repository.findUserIdByDisplayName(displayName); // Outside the lock: other lookups carry on
+        if (userId != -1) {
+            put(userId, usernameOf(userId), displayName);
+        }
+        return userId;
+    }
+
+    public int cachedUserIdByUsername(String username) {
+        Entry entry = count(live(byUsername, username));
+        return entry == null ? -1 : entry.userId;
+    }
+
+    public String cachedDisplayName(int userId) {
+        Entry entry = count(live(byUserId, userId));
+        return entry == null ? null : entry.displayName;
+    }
+
+    // Call whenever a user's profile changes outside of login
+    public void invalidate(int userId) {
+        lock.lock();
+        try {
+            Entry entry = byUserId.remove(userId);
+            if (entry != null) {
+                unindex(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            byUserId.clear();
+            byUsername.clear();
+            byDisplayName.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <K> Entry live(Map<K, Entry> index, K key) {
+        lock.lock();
+        try {
+            Entry entry = index.get(key);
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                byUserId.remove(entry.userId);
+                unindex(entry);
+                expirations.incrementAndGet();
+                entry = null;
+            } else if (entry != null && index != byUserId) {
+                byUserId.get(entry.userId); // Counts as a use for LRU order
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry count(Entry entry) {
+        (entry == null ? misses : hits).incrementAndGet();
+        return entry;
+    }
+
+    private String usernameOf(int userId) {
+        lock.lock();
+        try {
+            Entry entry = byUserId.get(userId);
+            return entry == null ? null : entry.username;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the lock; only removes index entries that still point at this entry
+    private void unindex(Entry entry) {
+        if (entry.username != null) {
+            byUsername.remove(entry.username, entry);
+        }
+        if (entry.displayName != null) {
+            byDisplayName.remove(entry.displayName, entry);
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return byUserId.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    // Database queries that were actually made after a miss
+    public long loads() {
+        return loads.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public long expirations() {
+        return expirations.get();
+    }
+
+    public double hitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : hits.get() / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + "/" + maxEntries + " hits=" + hits() + " misses=" + misses()
+                + " hitRate=" + String.format("%.1f%%", hitRate() * 100) + " loads=" + loads()
+                + " evictions=" + evictions() + " expirations=" + expirations();
+    }
+}
@@ -0,0 +1,16 @@
+package serverPackage;
+
+// Row of the users table as needed by the login path
+public class UserRecord {
+    public final int userId;
+    public final String username;
+    public final String displayName;
+    public final String password;
+
+    public UserRecord(int userId, String username, String displayName, String password) {
+        this.userId = userId;
+        this.username = username;
+        this.displayName = displayName;
+        this.password = password;
+    }
+}
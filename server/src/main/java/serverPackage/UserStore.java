@@ -0,0 +1,331 @@
+package serverPackage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+// Users, presence and contacts of the embedded store: held in memory and made durable by an
+// append-only journal that is replayed when the store opens. Each change is one record; a batch
+// of changes is written together and synced once. A torn record at the end is cut off on open,
+// and once most records are superseded the journal is rewritten with only the current state.
+//
+// Record: <int length><byte type><payload>, length counting the type and payload.
+public class UserStore {
+    private static final byte USER = 1;     // <int userId><UTF username><UTF displayName><UTF password>
+    private static final byte PRESENCE = 2; // <int userId><boolean active><long lastLogin>
+    private static final byte CONTACT = 3;  // <int userId><int contactUserId>
+
+    private final File journal;
+    // ReentrantLock rather than synchronized so a virtual thread never pins while holding it
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, UserRecord> byUsername = new HashMap<>();
+    private final Map<Integer, UserRecord> byId = new HashMap<>();
+    private final Map<String, Integer> idByDisplayName = new HashMap<>();
+    private final Map<Integer, Boolean> active = new HashMap<>();
+    private final Map<Integer, Long> lastLogin = new HashMap<>();
+    private final Map<Integer, Set<Integer>> contacts = new HashMap<>(); // Added by the key user, in order
+    private final Map<Integer, Set<Integer>> addedBy = new HashMap<>(); // The reverse of contacts
+    private int maxUserId = 0;
+    private int records = 0;
+    private FileOutputStream appender;
+
+    public UserStore(File journal) throws IOException {
+        this.journal = journal;
+        replay();
+        if (records > 64 && records > 2 * liveRecords()) {
+            compact();
+        }
+        appender = new FileOutputStream(journal, true);
+    }
+
+    // Adds each username:password:displayName line (# starts a comment) that is not a user yet,
+    // all in one journal write and one sync
+    public int importUsers(File usersFile) throws IOException {
+        List<String> lines = Files.readAllLines(usersFile.toPath(), StandardCharsets.UTF_8);
+        List<UserRecord> added = new ArrayList<>();
+        Set<String> usernames = new HashSet<>();
+        lock.lock();
+        try {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(batch);
+            for (String line : lines) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split(":", 3);
+                if (parts.length < 3) {
+                    System.out.println("Skipping malformed line in " + usersFile + ": " + line);
+                    continue;
+                }
+                if (byUsername.containsKey(parts[0]) || !usernames.add(parts[0])) {
+                    continue;
+                }
+                UserRecord user = new UserRecord(maxUserId + 1 + added.size(), parts[0], parts[2], parts[1]);
+                writeUser(out, user);
+                added.add(user);
+            }
+            if (added.isEmpty()) {
+                return 0;
+            }
+            write(batch);
+            for (UserRecord user : added) {
+                putUser(user);
+            }
+            return added.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the new user's id, or -1 if the username is taken
+    public int addUser(String username, String displayName, String password) throws IOException {
+        lock.lock();
+        try {
+            if (byUsername.containsKey(username)) {
+                return -1;
+            }
+            int userId = maxUserId + 1;
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            writeUser(new DataOutputStream(batch), new UserRecord(userId, username, displayName, password));
+            write(batch);
+            putUser(new UserRecord(userId, username, displayName, password));
+            return userId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public UserRecord findByUsername(String username) {
+        lock.lock();
+        try {
+            return byUsername.get(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public UserRecord findById(int userId) {
+        lock.lock();
+        try {
+            return byId.get(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int findIdByDisplayName(String displayName) {
+        lock.lock();
+        try {
+            return idByDisplayName.getOrDefault(displayName, -1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // null when the user does not exist, like a missing row
+    public Boolean isActive(int userId) {
+        lock.lock();
+        try {
+            return byId.containsKey(userId) ? active.getOrDefault(userId, false) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void savePresence(List<PresenceChange> changes) throws IOException {
+        lock.lock();
+        try {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream(changes.size() * 18);
+            DataOutputStream out = new DataOutputStream(batch);
+            for (PresenceChange change : changes) {
+                // A login keeps the previous last_login, as the SQL backend does
+                writePresence(out, change.userId, change.active, change.active ? lastLogin.getOrDefault(change.userId, 0L) : change.timestamp);
+            }
+            write(batch);
+            for (PresenceChange change : changes) {
+                active.put(change.userId, change.active);
+                if (!change.active) {
+                    lastLogin.put(change.userId, change.timestamp);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void addContact(int userId, int contactUserId) throws IOException {
+        lock.lock();
+        try {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream(13);
+            writeContact(new DataOutputStream(batch), userId, contactUserId);
+            write(batch);
+            putContact(userId, contactUserId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Contacts the user added
+    public List<Integer> contactsOf(int userId) {
+        lock.lock();
+        try {
+            return new ArrayList<>(contacts.getOrDefault(userId, Collections.emptySet()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Contacts in either direction
+    public Set<Integer> linkedTo(int userId) {
+        lock.lock();
+        try {
+            Set<Integer> linked = new HashSet<>(contacts.getOrDefault(userId, Collections.emptySet()));
+            linked.addAll(addedBy.getOrDefault(userId, Collections.emptySet()));
+            return linked;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            appender.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Appends the framed records in one write and syncs them
+    private void write(ByteArrayOutputStream batch) throws IOException {
+        appender.write(batch.toByteArray());
+        appender.getFD().sync();
+    }
+
+    private void replay() throws IOException {
+        if (!journal.isFile()) {
+            return;
+        }
+        long size = journal.length();
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+            while (offset + 5 <= size) {
+                int length = in.readInt();
+                if (length < 1 || offset + 4 + length > size) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                apply(new DataInputStream(new ByteArrayInputStream(record)));
+                records++;
+                offset += 4 + length;
+            }
+        } catch (UTFDataFormatException | EOFException e) {
+            // Garbage inside the last record: keep what was applied before it
+        }
+        if (offset < size) {
+            System.out.println("User journal " + journal + " ends with a partial record, cutting it at " + offset);
+            try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+                file.setLength(offset);
+            }
+        }
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case USER:
+                putUser(new UserRecord(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF()));
+                break;
+            case PRESENCE:
+                int userId = in.readInt();
+                active.put(userId, in.readBoolean());
+                lastLogin.put(userId, in.readLong());
+                break;
+            case CONTACT:
+                putContact(in.readInt(), in.readInt());
+                break;
+            default:
+                throw new IOException("Unknown record type " + type + " in " + journal);
+        }
+    }
+
+    private void putUser(UserRecord user) {
+        byUsername.put(user.username, user);
+        byId.put(user.userId, user);
+        idByDisplayName.put(user.displayName, user.userId);
+        maxUserId = Math.max(maxUserId, user.userId);
+    }
+
+    private void putContact(int userId, int contactUserId) {
+        contacts.computeIfAbsent(userId, id -> new LinkedHashSet<>()).add(contactUserId);
+        addedBy.computeIfAbsent(contactUserId, id -> new HashSet<>()).add(userId);
+    }
+
+    private int liveRecords() {
+        int contactCount = 0;
+        for (Set<Integer> added : contacts.values()) {
+            contactCount += added.size();
+        }
+        return byId.size() + active.size() + contactCount;
+    }
+
+    // Rewrites the journal as one record per user, presence and contact, then swaps it in
+    private void compact() throws IOException {
+        File temporary = new File(journal.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            for (UserRecord user : byId.values()) {
+                writeUser(out, user);
+            }
+            for (Map.Entry<Integer, Boolean> entry : active.entrySet()) {
+                writePresence(out, entry.getKey(), entry.getValue(), lastLogin.getOrDefault(entry.getKey(), 0L));
+            }
+            for (Map.Entry<Integer, Set<Integer>> entry : contacts.entrySet()) {
+                for (int contactUserId : entry.getValue()) {
+                    writeContact(out, entry.getKey(), contactUserId);
+                }
+            }
+            file.write(buffer.toByteArray());
+            file.getFD().sync();
+        }
+        Files.move(temporary.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Compacted user journal " + journal + " from " + records + " to " + liveRecords() + " records");
+        records = liveRecords();
+    }
+
+    private static void writeUser(DataOutputStream out, UserRecord user) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(record);
+        body.writeByte(USER);
+        body.writeInt(user.userId);
+        body.writeUTF(user.username);
+        body.writeUTF(user.displayName);
+        body.writeUTF(user.password);
+        frame(out, record);
+    }
+
+    private static void writePresence(DataOutputStream out, int userId, boolean isActive, long lastLoginAt) throws IOException {
+        out.writeInt(1 + 4 + 1 + 8);
+        out.writeByte(PRESENCE);
+        out.writeInt(userId);
+        out.writeBoolean(isActive);
+        out.writeLong(lastLoginAt);
+    }
+
+    private static void writeContact(DataOutputStream out, int userId, int contactUserId) throws IOException {
+        out.writeInt(1 + 4 + 4);
+        out.writeByte(CONTACT);
+        out.writeInt(userId);
+        out.writeInt(contactUserId);
+    }
+
+    private static void frame(DataOutputStream out, ByteArrayOutputStream record) throws IOException {
+        out.writeInt(record.size());
+        record.writeTo(out);
+    }
+}